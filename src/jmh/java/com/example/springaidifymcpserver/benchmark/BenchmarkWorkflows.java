@@ -0,0 +1,142 @@
+package com.example.springaidifymcpserver.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 基准测试使用的工作流样例生成器
+ * <p>
+ * 生成的工作流结构为：start → 问题分类（N个类别）→ 每个类别一条 知识检索 → LLM → 回答 分支，
+ * 共 2 + 3N 个节点。YAML字段命名与DifyWorkflow模型一致，可以直接被loadWorkflowFromFile解析。
+ */
+public final class BenchmarkWorkflows {
+
+    private BenchmarkWorkflows() {
+    }
+    
+    /**
+     * 生成包含指定分支数量的工作流YAML
+     */
+    public static String yaml(int branches) {
+        StringBuilder nodes = new StringBuilder();
+        StringBuilder edges = new StringBuilder();
+        
+        node(nodes, "start", "start", """
+                variables:
+                - variable: topic
+                  label: 关注点
+                  type: text-input
+                  required: false
+                  maxLength: 48
+                  valueSelector: []
+                - variable: channel
+                  label: 渠道
+                  type: select
+                  required: true
+                  options: [web, app, phone]
+                  valueSelector: []
+                """);
+        StringBuilder classes = new StringBuilder();
+        for (int i = 0; i < branches; i++) {
+            classes.append("- id: class-").append(i).append('\n')
+                    .append("  name: 类别").append(i).append('\n');
+        }
+        node(nodes, "classifier", "question-classifier", """
+                classes:
+                %s\
+                queryVariableSelector: [sys, query]
+                model:
+                  provider: openai
+                  name: gpt-4
+                """.formatted(classes));
+        edge(edges, "start", "classifier", "source");
+        
+        for (int i = 0; i < branches; i++) {
+            String retrieval = "kr-" + i;
+            String llm = "llm-" + i;
+            String answer = "answer-" + i;
+            node(nodes, retrieval, "knowledge-retrieval", """
+                    datasetIds: [dataset-%d]
+                    queryVariableSelector: [sys, query]
+                    retrievalMode: single
+                    """.formatted(i));
+            node(nodes, llm, "llm", """
+                    context:
+                      enabled: true
+                      variableSelector: [%s, result]
+                    model:
+                      provider: openai
+                      name: gpt-4
+                      completionParams:
+                        temperature: 0
+                    promptTemplate:
+                    - role: system
+                      text: "你是类别%d的助手，参考以下资料回答问题：{{#context#}}，用户关注：{{#start.topic#}}"
+                    """.formatted(retrieval, i));
+            node(nodes, answer, "answer", """
+                    answer: "{{#%s.text#}}"
+                    """.formatted(llm));
+            edge(edges, "classifier", retrieval, "class-" + i);
+            edge(edges, retrieval, llm, "source");
+            edge(edges, llm, answer, "source");
+        }
+        
+        return """
+                app:
+                  name: Benchmark Workflow %d
+                  description: 基准测试工作流
+                  mode: advanced-chat
+                  icon: "🤖"
+                  iconBackground: "#FFEAD5"
+                  useIconAsAnswerIcon: false
+                kind: app
+                version: 0.1.5
+                workflow:
+                  conversationVariables: []
+                  environmentVariables: []
+                  graph:
+                    viewport:
+                      x: 0
+                      y: 0
+                      zoom: 1
+                    nodes:
+                %s\
+                    edges:
+                %s""".formatted(branches, nodes, edges);
+    }
+    
+    /**
+     * 将工作流YAML写入临时文件，JVM退出时删除
+     */
+    public static Path writeTempFile(int branches) throws IOException {
+        Path file = Files.createTempFile("benchmark-workflow-" + branches + "-", ".yml");
+        file.toFile().deleteOnExit();
+        Files.writeString(file, yaml(branches), StandardCharsets.UTF_8);
+        return file;
+    }
+    
+    private static void node(StringBuilder nodes, String id, String type, String data) {
+        nodes.append("    - id: ").append(id).append('\n')
+                .append("      type: custom\n")
+                .append("      width: 244\n")
+                .append("      height: 90\n")
+                .append("      position:\n")
+                .append("        x: 0\n")
+                .append("        y: 0\n")
+                .append("      data:\n")
+                .append("        type: ").append(type).append('\n')
+                .append("        title: ").append(id).append('\n')
+                .append(data.indent(8));
+    }
+    
+    private static void edge(StringBuilder edges, String source, String target, String sourceHandle) {
+        edges.append("    - id: ").append(source).append('-').append(target).append('\n')
+                .append("      source: ").append(source).append('\n')
+                .append("      sourceHandle: ").append(sourceHandle).append('\n')
+                .append("      target: ").append(target).append('\n')
+                .append("      targetHandle: target\n")
+                .append("      type: custom\n");
+    }
+}
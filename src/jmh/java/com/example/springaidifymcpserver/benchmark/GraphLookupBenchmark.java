@@ -0,0 +1,71 @@
+package com.example.springaidifymcpserver.benchmark;
+
+import com.example.springaidifymcpserver.model.dify.CompiledWorkflow;
+import com.example.springaidifymcpserver.model.dify.DifyWorkflow;
+import com.example.springaidifymcpserver.model.dify.WorkflowEdge;
+import com.example.springaidifymcpserver.model.dify.WorkflowNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yaml.snakeyaml.Yaml;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 节点和边查找基准：对比DifyWorkflow上的线性扫描与CompiledWorkflow上的预建索引
+ * <p>
+ * 查找目标取最后一个分支的节点，线性扫描需要遍历整个节点列表。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GraphLookupBenchmark {
+
+    @Param({"2", "500"})
+    private int branches;
+    
+    private DifyWorkflow workflow;
+    private CompiledWorkflow compiled;
+    private String nodeId;
+    private String sourceId;
+    
+    @Setup
+    public void setup() {
+        workflow = new Yaml().loadAs(BenchmarkWorkflows.yaml(branches), DifyWorkflow.class);
+        compiled = CompiledWorkflow.compile("benchmark", workflow);
+        nodeId = "answer-" + (branches - 1);
+        sourceId = "llm-" + (branches - 1);
+    }
+    
+    @Benchmark
+    public DifyWorkflow.Graph.Node getNodeById() {
+        return workflow.getNodeById(nodeId);
+    }
+    
+    @Benchmark
+    public List<DifyWorkflow.Graph.Edge> getEdgesFromNode() {
+        return workflow.getEdgesFromNode(sourceId);
+    }
+    
+    @Benchmark
+    public WorkflowNode compiledGetNode() {
+        return compiled.getNode(nodeId);
+    }
+    
+    @Benchmark
+    public List<WorkflowEdge> compiledGetEdgesFrom() {
+        return compiled.getEdgesFrom(sourceId);
+    }
+}
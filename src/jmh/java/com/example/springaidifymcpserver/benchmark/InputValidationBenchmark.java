@@ -0,0 +1,55 @@
+package com.example.springaidifymcpserver.benchmark;
+
+import com.example.springaidifymcpserver.model.dify.CompiledWorkflow;
+import com.example.springaidifymcpserver.model.dify.DifyWorkflow;
+import com.example.springaidifymcpserver.model.dify.InputSchema;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yaml.snakeyaml.Yaml;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 调用参数校验的单次开销，用于确认预编译的校验器相对LLM调用可以忽略
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InputValidationBenchmark {
+
+    private InputSchema inputSchema;
+    private Map<String, Object> validArguments;
+    private Map<String, Object> invalidArguments;
+    
+    @Setup
+    public void setup() {
+        CompiledWorkflow workflow = CompiledWorkflow.compile("benchmark",
+                new Yaml().loadAs(BenchmarkWorkflows.yaml(2), DifyWorkflow.class));
+        inputSchema = workflow.getInputSchema();
+        validArguments = Map.of("query", "如何申请退款？", "topic", "售后", "channel", "app");
+        invalidArguments = Map.of("query", "", "channel", "email");
+    }
+    
+    @Benchmark
+    public List<String> validArguments() {
+        return inputSchema.validate(validArguments);
+    }
+    
+    @Benchmark
+    public List<String> invalidArguments() {
+        return inputSchema.validate(invalidArguments);
+    }
+}
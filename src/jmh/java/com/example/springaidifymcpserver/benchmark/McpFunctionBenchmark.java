@@ -0,0 +1,55 @@
+package com.example.springaidifymcpserver.benchmark;
+
+import com.example.springaidifymcpserver.model.dify.DifyWorkflow;
+import com.example.springaidifymcpserver.model.mcp.McpFunction;
+import com.example.springaidifymcpserver.service.DifyWorkflowService;
+import com.example.springaidifymcpserver.service.McpManifestService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yaml.snakeyaml.Yaml;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MCP函数定义和清单的获取开销，对应客户端每次拉取函数清单时的服务端成本
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class McpFunctionBenchmark {
+
+    private static final String WORKFLOW_ID = "benchmark";
+    
+    private DifyWorkflowService workflowService;
+    private McpManifestService manifestService;
+    
+    @Setup
+    public void setup() {
+        workflowService = new DifyWorkflowService();
+        workflowService.addWorkflow(WORKFLOW_ID, new Yaml().loadAs(BenchmarkWorkflows.yaml(2), DifyWorkflow.class));
+        manifestService = new McpManifestService(workflowService, new ObjectMapper(),
+                "benchmark", "Benchmark", "", "1.0.0");
+    }
+    
+    @Benchmark
+    public McpFunction analyzeWorkflowForMcpFunction() {
+        return workflowService.analyzeWorkflowForMcpFunction(WORKFLOW_ID);
+    }
+    
+    @Benchmark
+    public McpManifestService.Manifest manifest() {
+        return manifestService.getManifest();
+    }
+}
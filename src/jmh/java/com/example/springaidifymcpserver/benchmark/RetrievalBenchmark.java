@@ -0,0 +1,91 @@
+package com.example.springaidifymcpserver.benchmark;
+
+import com.example.springaidifymcpserver.service.retrieval.HnswIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 向量检索基准：对比HNSW索引查询与对全部向量的暴力扫描
+ * <p>
+ * 向量为随机生成的单位向量，不包含查询向量的生成（远程调用）耗时。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RetrievalBenchmark {
+
+    @Param({"10000", "100000"})
+    private int size;
+    
+    @Param({"384"})
+    private int dimensions;
+    
+    private HnswIndex index;
+    private float[][] vectors;
+    private float[] query;
+    
+    @Setup
+    public void setup() {
+        Random random = new Random(7);
+        vectors = new float[size][];
+        HnswIndex.Builder builder = new HnswIndex.Builder(dimensions, size, 16, 100);
+        for (int i = 0; i < size; i++) {
+            vectors[i] = randomUnitVector(random);
+            builder.add(vectors[i]);
+        }
+        index = builder.build();
+        query = randomUnitVector(random);
+    }
+    
+    @Benchmark
+    public List<HnswIndex.Hit> hnswSearch() {
+        return index.search(query, 4, 64);
+    }
+    
+    @Benchmark
+    public int bruteForceSearch() {
+        int best = -1;
+        float bestScore = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < vectors.length; i++) {
+            float score = 0;
+            for (int d = 0; d < dimensions; d++) {
+                score += query[d] * vectors[i][d];
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                best = i;
+            }
+        }
+        return best;
+    }
+    
+    private float[] randomUnitVector(Random random) {
+        float[] vector = new float[dimensions];
+        double norm = 0;
+        for (int d = 0; d < dimensions; d++) {
+            vector[d] = (float) random.nextGaussian();
+            norm += vector[d] * vector[d];
+        }
+        float scale = (float) (1.0 / Math.sqrt(norm));
+        for (int d = 0; d < dimensions; d++) {
+            vector[d] *= scale;
+        }
+        return vector;
+    }
+}
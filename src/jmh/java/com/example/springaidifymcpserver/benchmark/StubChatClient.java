@@ -0,0 +1,52 @@
+package com.example.springaidifymcpserver.benchmark;
+
+import org.springframework.ai.chat.ChatClient;
+import org.springframework.ai.chat.ChatResponse;
+import org.springframework.ai.chat.Generation;
+import org.springframework.ai.chat.StreamingChatClient;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 模拟LLM的客户端，按配置的延迟返回固定内容
+ * <p>
+ * 阻塞调用会占住调用线程等待延迟；流式调用把回复拆成若干token，首个token在延迟之后到达。
+ * 回复内容固定为第一个分类ID，问题分类节点总是命中第一个分支。
+ */
+public class StubChatClient implements ChatClient, StreamingChatClient {
+
+    private static final String REPLY = "class-0";
+    private static final int TOKENS = 4;
+    
+    private final Duration latency;
+    
+    public StubChatClient(Duration latency) {
+        this.latency = latency;
+    }
+    
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        if (!latency.isZero()) {
+            LockSupport.parkNanos(latency.toNanos());
+        }
+        return response(REPLY);
+    }
+    
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        int size = (REPLY.length() + TOKENS - 1) / TOKENS;
+        Flux<ChatResponse> tokens = Flux.range(0, TOKENS)
+                .map(i -> REPLY.substring(Math.min(i * size, REPLY.length()), Math.min((i + 1) * size, REPLY.length())))
+                .filter(token -> !token.isEmpty())
+                .map(StubChatClient::response);
+        return latency.isZero() ? tokens : tokens.delaySubscription(latency);
+    }
+    
+    private static ChatResponse response(String content) {
+        return new ChatResponse(List.of(new Generation(content)));
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.springaidifymcpserver.benchmark;
+
+import com.example.springaidifymcpserver.model.dify.CompiledWorkflow;
+import com.example.springaidifymcpserver.model.dify.DifyWorkflow;
+import com.example.springaidifymcpserver.service.CheckpointStore;
+import com.example.springaidifymcpserver.service.ClassifierCache;
+import com.example.springaidifymcpserver.service.LlmBulkheads;
+import com.example.springaidifymcpserver.service.LlmResponseCache;
+import com.example.springaidifymcpserver.service.VirtualThreadExecutor;
+import com.example.springaidifymcpserver.service.WorkflowExecutor;
+import com.example.springaidifymcpserver.service.WorkflowMetrics;
+import com.example.springaidifymcpserver.service.remote.DifyApiClient;
+import com.example.springaidifymcpserver.service.retrieval.RetrievedChunk;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.yaml.snakeyaml.Yaml;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 端到端执行基准：问题分类 → 知识检索 → LLM → 回答，LLM由可配置延迟的StubChatClient模拟，
+ * 知识检索由返回固定片段的检索引擎模拟
+ * <p>
+ * 分类缓存和LLM响应缓存均关闭，每次调用都会经过完整的调度和两次模拟LLM调用。
+ * latencyMs=0 衡量执行器自身的开销，非0时衡量线程模型在等待上游期间的表现。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WorkflowExecuteBenchmark {
+
+    @Param({"0", "20"})
+    private long latencyMs;
+    
+    @Param({"false", "true"})
+    private boolean virtualThreads;
+    
+    private VirtualThreadExecutor virtualThreadExecutor;
+    private WorkflowExecutor executor;
+    private CompiledWorkflow workflow;
+    private Map<String, Object> inputs;
+    
+    @Setup(Level.Trial)
+    public void setup() {
+        StubChatClient chatClient = new StubChatClient(Duration.ofMillis(latencyMs));
+        virtualThreadExecutor = new VirtualThreadExecutor(virtualThreads, 1000);
+        executor = new WorkflowExecutor(chatClient, chatClient, virtualThreadExecutor,
+                new ClassifierCache(false, 1, Duration.ofMinutes(1), "", Duration.ofMinutes(10)),
+                new LlmResponseCache(false, Set.of(), false, 1, Duration.ofMinutes(1)),
+                query -> Mono.just(List.of(new RetrievedChunk(query.datasetIds().get(0), "faq.md", "退款需在签收后7天内申请。", 0.9))),
+                new WorkflowMetrics(new SimpleMeterRegistry()),
+                new LlmBulkheads(new SimpleMeterRegistry(), true, 1000, 1, 1000, 0.9, 2.0, Duration.ofSeconds(30)),
+                new DifyApiClient(WebClient.builder(), new ObjectMapper(), new StandardEnvironment(), "", "", Set.of(), "benchmark"),
+                new CheckpointStore("", false, Duration.ofHours(1), Duration.ofMinutes(5)),
+                4,
+                Duration.ofMinutes(2));
+        workflow = CompiledWorkflow.compile("benchmark",
+                new Yaml().loadAs(BenchmarkWorkflows.yaml(4), DifyWorkflow.class));
+        inputs = Map.of("query", "如何申请退款？", "topic", "售后", "channel", "app");
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        virtualThreadExecutor.shutdown();
+    }
+    
+    @Benchmark
+    public Map<String, Object> executeWorkflow() {
+        return executor.executeWorkflow(workflow, inputs);
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.springaidifymcpserver.benchmark;
+
+import com.example.springaidifymcpserver.model.dify.CompiledWorkflow;
+import com.example.springaidifymcpserver.model.dify.DifyWorkflow;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jol.info.GraphLayout;
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * 单个工作流的堆占用
+ * <p>
+ * 使用JOL统计对象图的总字节数，通过辅助计数器输出到结果中：editorModelBytes为解析出的完整
+ * DifyWorkflow，compiledBytes为运行时缓存的CompiledWorkflow（包含其引用的节点参数），即每个已加载工作流的常驻开销。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djol.magicFieldOffset=true")
+public class WorkflowFootprintBenchmark {
+
+    @Param({"2", "50", "500"})
+    private int branches;
+    
+    private String yaml;
+    
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        
+        public long editorModelBytes;
+        public long compiledBytes;
+        
+        @Setup(Level.Iteration)
+        public void reset() {
+            editorModelBytes = 0;
+            compiledBytes = 0;
+        }
+    }
+    
+    @Setup
+    public void setup() {
+        yaml = BenchmarkWorkflows.yaml(branches);
+    }
+    
+    @Benchmark
+    public CompiledWorkflow footprint(Footprint footprint) {
+        DifyWorkflow workflow = new Yaml().loadAs(yaml, DifyWorkflow.class);
+        footprint.editorModelBytes = GraphLayout.parseInstance(workflow).totalSize();
+        CompiledWorkflow compiled = CompiledWorkflow.compile("benchmark", workflow);
+        footprint.compiledBytes = GraphLayout.parseInstance(compiled).totalSize();
+        return compiled;
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.springaidifymcpserver.benchmark;
+
+import com.example.springaidifymcpserver.model.dify.CompiledWorkflow;
+import com.example.springaidifymcpserver.model.dify.DifyWorkflow;
+import com.example.springaidifymcpserver.model.dify.WorkflowDefinition;
+import com.example.springaidifymcpserver.service.DifyWorkflowService;
+import com.example.springaidifymcpserver.service.WorkflowSnapshotStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 工作流加载基准：SnakeYAML解析导出文件、从二进制快照加载，以及解析结果编译为执行计划
+ * <p>
+ * coldStartFromYaml和coldStartFromSnapshot分别是没有快照和快照命中时启动加载单个文件的完整过程
+ * （读取、解码、提取执行模型、编译），两者之差即快照对冷启动的收益。
+ * branches=2 对应小型导出（8个节点），branches=500 对应超大导出（1502个节点）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WorkflowLoadBenchmark {
+
+    @Param({"2", "500"})
+    private int branches;
+    
+    private DifyWorkflowService workflowService;
+    private File file;
+    private WorkflowSnapshotStore snapshotStore;
+    private DifyWorkflow workflow;
+    
+    @Setup
+    public void setup() throws IOException {
+        workflowService = new DifyWorkflowService();
+        file = BenchmarkWorkflows.writeTempFile(branches).toFile();
+        workflow = workflowService.loadWorkflowFromFile(file);
+        snapshotStore = new WorkflowSnapshotStore(true);
+        snapshotStore.load(file.toPath(), content -> WorkflowDefinition.of(workflow));
+        file.toPath().resolveSibling(file.getName() + ".snapshot").toFile().deleteOnExit();
+    }
+    
+    @Benchmark
+    public DifyWorkflow loadWorkflowFromFile() {
+        return workflowService.loadWorkflowFromFile(file);
+    }
+    
+    @Benchmark
+    public WorkflowDefinition loadSnapshot() throws IOException {
+        return snapshotStore.load(file.toPath(), content -> {
+            throw new IllegalStateException("快照未命中");
+        });
+    }
+    
+    @Benchmark
+    public CompiledWorkflow compile() {
+        return CompiledWorkflow.compile("benchmark", workflow);
+    }
+    
+    @Benchmark
+    public CompiledWorkflow coldStartFromYaml() {
+        return CompiledWorkflow.compile("benchmark", workflowService.loadWorkflowFromFile(file));
+    }
+    
+    @Benchmark
+    public CompiledWorkflow coldStartFromSnapshot() throws IOException {
+        return CompiledWorkflow.compile("benchmark", loadSnapshot());
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.springaidifymcpserver.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 启动完成后预热上游连接
+ * <p>
+ * 对每个配置的上游地址并发发出若干HEAD请求，提前完成DNS解析、TCP连接和TLS握手，
+ * 请求结束后连接以keep-alive方式留在连接池中，部署后的第一批调用不再承担建连开销。
+ * 任何状态码都说明连接已建立；预热失败只记录日志，不影响启动。
+ * <p>
+ * 同时通过共享连接池的WebClient和默认配置的WebClient预热，后者对应Spring AI流式调用所用的HTTP/1.1连接。
+ */
+@Component
+@Slf4j
+public class UpstreamConnectionWarmer {
+
+    private final WebClient.Builder webClientBuilder;
+    private final boolean enabled;
+    private final List<String> urls;
+    private final int connections;
+    private final Duration timeout;
+    
+    public UpstreamConnectionWarmer(WebClient.Builder webClientBuilder,
+                                    @Value("${mcp.upstream.warmup.enabled:true}") boolean enabled,
+                                    @Value("${mcp.upstream.warmup.urls:}") List<String> urls,
+                                    @Value("${mcp.upstream.warmup.connections:4}") int connections,
+                                    @Value("${mcp.upstream.warmup.timeout:PT10S}") Duration timeout) {
+        this.webClientBuilder = webClientBuilder;
+        this.enabled = enabled;
+        this.urls = urls.stream().map(String::trim).filter(url -> !url.isEmpty()).distinct().toList();
+        this.connections = Math.max(1, connections);
+        this.timeout = timeout;
+    }
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        if (!enabled || urls.isEmpty()) {
+            return;
+        }
+        warmUp().subscribe();
+    }
+    
+    /**
+     * 预热所有上游地址，返回成功建立的连接数
+     */
+    public Mono<Long> warmUp() {
+        List<WebClient> clients = List.of(webClientBuilder.build(), WebClient.create());
+        return Flux.fromIterable(urls)
+                .flatMap(url -> warmUp(url, clients))
+                .reduce(0L, Long::sum);
+    }
+    
+    private Mono<Long> warmUp(String url, List<WebClient> clients) {
+        long startTime = System.nanoTime();
+        // 并发请求迫使HTTP/1.1连接池建立多条连接
+        Flux<Boolean> requests = Flux.fromIterable(clients)
+                .flatMap(client -> Flux.range(0, connections).flatMap(i -> head(client, url)));
+        return requests.filter(Boolean::booleanValue)
+                .count()
+                .doOnNext(warmed -> log.info("预热上游连接 {}: {}/{} 个请求成功，耗时 {} ms", url, warmed,
+                        connections * clients.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
+    }
+    
+    private Mono<Boolean> head(WebClient client, String url) {
+        return client.head()
+                .uri(url)
+                .<Boolean>exchangeToMono(response -> response.releaseBody().thenReturn(true))
+                .timeout(timeout)
+                .onErrorResume(e -> {
+                    log.warn("预热上游连接失败 {}: {}", url, e.getMessage());
+                    return Mono.just(false);
+                });
+    }
+}
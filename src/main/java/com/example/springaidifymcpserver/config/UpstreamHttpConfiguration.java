@@ -0,0 +1,101 @@
+package com.example.springaidifymcpserver.config;
+
+import io.netty.channel.ChannelOption;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.web.client.RestClientCustomizer;
+import org.springframework.boot.web.reactive.function.client.WebClientCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Scope;
+import org.springframework.http.client.ReactorNettyClientRequestFactory;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.client.RestClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.HttpResources;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
+/**
+ * 上游HTTP客户端配置，Dify API和LLM接口共用一个Reactor Netty连接池
+ * <p>
+ * 连接池开启keep-alive并在后台清理空闲和超龄连接，池的大小、活跃、空闲和等待获取的连接数
+ * 以 reactor.netty.connection.provider.* 指标发布。开启HTTP/2时通过TLS的ALPN协商，
+ * 服务端支持时多个请求复用同一条连接，不支持或明文连接时回退到HTTP/1.1。
+ * <p>
+ * WebClient.Builder（Dify API）和RestClient.Builder（Spring AI的同步对话和嵌入调用）通过定制器使用该连接池。
+ * Spring AI 0.8.0流式调用内部自行创建的WebClient使用Reactor Netty的全局连接池（只能使用HTTP/1.1），
+ * 开启 mcp.upstream.pool.global 后该连接池同时替换全局连接池，这条路径也受同样的连接数上限、空闲清理和指标约束；
+ * 全局连接池被进程内所有默认配置的Reactor Netty客户端共享，因此默认不替换。
+ */
+@Configuration(proxyBeanMethods = false)
+@Slf4j
+public class UpstreamHttpConfiguration {
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider upstreamConnectionProvider(
+            @Value("${mcp.upstream.pool.max-connections:200}") int maxConnections,
+            @Value("${mcp.upstream.pool.pending-acquire-max-count:1000}") int pendingAcquireMaxCount,
+            @Value("${mcp.upstream.pool.pending-acquire-timeout:PT10S}") Duration pendingAcquireTimeout,
+            @Value("${mcp.upstream.pool.max-idle-time:PT60S}") Duration maxIdleTime,
+            @Value("${mcp.upstream.pool.max-life-time:PT10M}") Duration maxLifeTime,
+            @Value("${mcp.upstream.pool.evict-interval:PT30S}") Duration evictInterval,
+            @Value("${mcp.upstream.pool.global:false}") boolean global) {
+        ConnectionProvider provider = ConnectionProvider.builder("upstream")
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .pendingAcquireTimeout(pendingAcquireTimeout)
+                .maxIdleTime(maxIdleTime)
+                .maxLifeTime(maxLifeTime)
+                .evictInBackground(evictInterval)
+                .metrics(true)
+                .build();
+        if (global) {
+            // 使用默认配置创建的HttpClient在获取连接时才解析全局连接池，启动期间替换不影响已创建的客户端
+            HttpResources.set(provider);
+            log.info("上游连接池已替换Reactor Netty全局连接池");
+        }
+        log.info("上游连接池: 最大连接数 {}，空闲超时 {}", maxConnections, maxIdleTime);
+        return provider;
+    }
+    
+    @Bean
+    public HttpClient upstreamHttpClient(ConnectionProvider upstreamConnectionProvider,
+                                         @Value("${mcp.upstream.http2:true}") boolean http2,
+                                         @Value("${mcp.upstream.connect-timeout:PT5S}") Duration connectTimeout,
+                                         @Value("${mcp.upstream.response-timeout:PT2M}") Duration responseTimeout) {
+        HttpClient client = HttpClient.create(upstreamConnectionProvider)
+                .keepAlive(true)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis())
+                .responseTimeout(responseTimeout)
+                .compress(true);
+        return http2 ? client.protocol(HttpProtocol.H2, HttpProtocol.HTTP11) : client;
+    }
+    
+    @Bean
+    public WebClientCustomizer upstreamWebClientCustomizer(HttpClient upstreamHttpClient) {
+        return builder -> builder.clientConnector(new ReactorClientHttpConnector(upstreamHttpClient));
+    }
+    
+    @Bean
+    public RestClientCustomizer upstreamRestClientCustomizer(HttpClient upstreamHttpClient) {
+        return builder -> builder.requestFactory(new ReactorNettyClientRequestFactory(upstreamHttpClient));
+    }
+    
+    /**
+     * Spring Boot只在非响应式应用中自动配置RestClient.Builder，WebFlux应用中由这里提供给Spring AI
+     */
+    @Bean
+    @Scope("prototype")
+    @ConditionalOnMissingBean
+    public RestClient.Builder restClientBuilder(ObjectProvider<RestClientCustomizer> customizers) {
+        RestClient.Builder builder = RestClient.builder();
+        customizers.orderedStream().forEach(customizer -> customizer.customize(builder));
+        return builder;
+    }
+}
@@ -0,0 +1,257 @@
+package com.example.springaidifymcpserver.controller;
+
+import com.example.springaidifymcpserver.model.dify.CompiledWorkflow;
+import com.example.springaidifymcpserver.model.mcp.McpRequest;
+import com.example.springaidifymcpserver.model.mcp.McpResponse;
+import com.example.springaidifymcpserver.service.CheckpointStore;
+import com.example.springaidifymcpserver.service.Deadline;
+import com.example.springaidifymcpserver.service.DeadlineExceededException;
+import com.example.springaidifymcpserver.service.DifyWorkflowService;
+import com.example.springaidifymcpserver.service.ExecutionOptions;
+import com.example.springaidifymcpserver.service.ExecutionTrace;
+import com.example.springaidifymcpserver.service.InvalidArgumentsException;
+import com.example.springaidifymcpserver.service.McpManifestService;
+import com.example.springaidifymcpserver.service.OverloadedException;
+import com.example.springaidifymcpserver.service.WorkflowCoalescer;
+import com.example.springaidifymcpserver.service.WorkflowExecutor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MCP接口，将工作流作为MCP函数对外提供
+ */
+@RestController
+@RequestMapping("/mcp")
+@Slf4j
+public class McpController {
+
+    private final DifyWorkflowService workflowService;
+    private final WorkflowExecutor workflowExecutor;
+    private final McpManifestService manifestService;
+    private final WorkflowCoalescer coalescer;
+    private final CheckpointStore checkpoints;
+    private final int batchConcurrency;
+    
+    public McpController(DifyWorkflowService workflowService,
+                         WorkflowExecutor workflowExecutor,
+                         McpManifestService manifestService,
+                         WorkflowCoalescer coalescer,
+                         CheckpointStore checkpoints,
+                         @Value("${mcp.server.batch.max-concurrency:8}") int batchConcurrency) {
+        this.workflowService = workflowService;
+        this.workflowExecutor = workflowExecutor;
+        this.manifestService = manifestService;
+        this.coalescer = coalescer;
+        this.checkpoints = checkpoints;
+        this.batchConcurrency = Math.max(1, batchConcurrency);
+    }
+    
+    /**
+     * 获取MCP清单
+     * <p>
+     * 返回预先序列化的字节，支持If-None-Match条件请求（304），客户端接受gzip时返回压缩后的字节。
+     */
+    @GetMapping(value = "/manifest", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> manifest(ServerWebExchange exchange) {
+        McpManifestService.Manifest manifest = manifestService.getManifest();
+        if (exchange.checkNotModified(manifest.etag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(manifest.etag())
+                    .build();
+        }
+        
+        boolean gzip = exchange.getRequest().getHeaders().getOrEmpty(HttpHeaders.ACCEPT_ENCODING).stream()
+                .anyMatch(value -> value.toLowerCase(Locale.ROOT).contains("gzip"));
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .eTag(manifest.etag())
+                .varyBy(HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(manifest.gzip());
+        }
+        return response.body(manifest.json());
+    }
+    
+    /**
+     * 调用MCP函数，返回完整结果
+     * <p>
+     * 请求的trace为true时，响应的metadata.trace按开始时间列出各节点的耗时、结果和token用量。
+     * 不带会话和trace的相同调用在执行期间合并为一次执行，见WorkflowCoalescer。
+     * 开启检查点时，失败后以相同request_id重试的调用从最后完成的节点继续执行，见CheckpointStore；
+     * 成功结束的调用不保留检查点，再次使用相同request_id会重新执行。
+     */
+    @PostMapping(value = "/invoke", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<McpResponse> invoke(@RequestBody McpRequest request) {
+        return execute(request);
+    }
+    
+    /**
+     * 批量调用MCP函数
+     * <p>
+     * 请求体为McpRequest数组，边解析边开始执行，最多同时执行 mcp.server.batch.max-concurrency 个调用。
+     * 响应数组与请求顺序一致，每个响应携带对应请求的request_id（如果有）和它在批次中的下标batch_index。
+     * 单个调用失败只影响对应的响应。
+     */
+    @PostMapping(value = "/batch", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Flux<McpResponse> batch(@RequestBody Flux<McpRequest> requests) {
+        return requests.index()
+                .flatMapSequential(indexed -> execute(indexed.getT2())
+                        .doOnNext(response -> response.setBatchIndex(indexed.getT1())), batchConcurrency);
+    }
+    
+    /**
+     * 调用方提供的request_id同时作为可恢复执行的运行ID，未提供时不记录检查点
+     */
+    private Mono<McpResponse> execute(McpRequest request) {
+        String requestId = request.getRequestId();
+        String sessionId = request.getSessionId();
+        
+        CompiledWorkflow workflow = workflowService.findByFunctionName(request.getName());
+        if (workflow == null) {
+            return Mono.just(McpResponse.error(
+                    "FUNCTION_NOT_FOUND", "找不到函数: " + request.getName(), requestId, sessionId));
+        }
+        
+        Map<String, Object> arguments = request.getArguments() != null ? request.getArguments() : Map.of();
+        ExecutionTrace trace = request.isTrace() ? new ExecutionTrace() : null;
+        long startTime = System.nanoTime();
+        
+        // 跟踪记录的是单次执行的节点，要求trace的请求单独执行；开启检查点时带request_id的请求可以恢复，
+        // 检查点按各自的request_id记录，也单独执行
+        boolean resumable = requestId != null && checkpoints.isEnabled();
+        boolean coalescable = trace == null && !resumable && coalescer.isCoalescable(workflow, sessionId);
+        Mono<Map<String, Object>> execution = coalescable
+                ? coalescer.execute(workflow, arguments, deadlineOf(request),
+                        () -> workflowExecutor.executeWorkflowReactive(workflow, arguments))
+                : workflowExecutor.executeWorkflowReactive(workflow, arguments, ExecutionOptions.builder()
+                        .trace(trace)
+                        .deadline(deadlineOf(request))
+                        .runId(requestId)
+                        .build());
+        return execution
+                .map(result -> {
+                    McpResponse response = McpResponse.success(result, requestId, sessionId);
+                    Map<String, Object> metadata = new LinkedHashMap<>();
+                    metadata.put("workflow_id", workflow.getWorkflowId());
+                    metadata.put("elapsed_ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+                    if (trace != null) {
+                        metadata.put("trace", trace.toMetadata());
+                    }
+                    response.setMetadata(metadata);
+                    return response;
+                })
+                .onErrorResume(e -> {
+                    logFailure("执行工作流失败", e);
+                    return Mono.just(toErrorResponse(e, requestId, sessionId));
+                });
+    }
+    
+    /**
+     * 流式调用MCP函数，以SSE逐段返回回答内容，最后一帧携带执行元数据
+     */
+    @PostMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<McpResponse>> stream(@RequestBody McpRequest request) {
+        String requestId = request.getRequestId();
+        String sessionId = request.getSessionId();
+        
+        CompiledWorkflow workflow = workflowService.findByFunctionName(request.getName());
+        if (workflow == null) {
+            return Flux.just(event("error", McpResponse.error(
+                    "FUNCTION_NOT_FOUND", "找不到函数: " + request.getName(), requestId, sessionId)));
+        }
+        
+        Map<String, Object> arguments = request.getArguments() != null ? request.getArguments() : Map.of();
+        ExecutionTrace trace = request.isTrace() ? new ExecutionTrace() : null;
+        AtomicInteger index = new AtomicInteger();
+        long startTime = System.nanoTime();
+        
+        ExecutionOptions options = ExecutionOptions.builder()
+                .trace(trace)
+                .deadline(deadlineOf(request))
+                .runId(requestId)
+                .build();
+        return workflowExecutor.streamWorkflow(workflow, arguments, options)
+                .map(content -> event("chunk", McpResponse.chunk(content, index.getAndIncrement(), requestId, sessionId)))
+                .concatWith(Mono.fromSupplier(() -> {
+                    Map<String, Object> metadata = new LinkedHashMap<>();
+                    metadata.put("event", "done");
+                    metadata.put("workflow_id", workflow.getWorkflowId());
+                    metadata.put("chunks", index.get());
+                    metadata.put("elapsed_ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+                    if (trace != null) {
+                        metadata.put("trace", trace.toMetadata());
+                    }
+                    return event("done", McpResponse.done(metadata, requestId, sessionId));
+                }))
+                .onErrorResume(e -> {
+                    logFailure("流式执行工作流失败", e);
+                    return Mono.just(event("error", toErrorResponse(e, requestId, sessionId)));
+                });
+    }
+    
+    /**
+     * 请求未指定timeout_ms时返回null，由执行器使用默认执行超时
+     */
+    private static Deadline deadlineOf(McpRequest request) {
+        return request.getTimeoutMs() != null ? Deadline.after(Duration.ofMillis(request.getTimeoutMs())) : null;
+    }
+    
+    /**
+     * 参数校验失败、过载和超时是预期内的失败，不记录堆栈；其他IllegalArgumentException属于内部错误
+     */
+    private static void logFailure(String message, Throwable e) {
+        if (e instanceof InvalidArgumentsException
+                || e instanceof OverloadedException
+                || e instanceof DeadlineExceededException) {
+            log.debug("{}: {}", message, e.getMessage());
+        } else {
+            log.error("{}: {}", message, e.getMessage(), e);
+        }
+    }
+    
+    private static McpResponse toErrorResponse(Throwable e, String requestId, String sessionId) {
+        String code;
+        if (e instanceof InvalidArgumentsException) {
+            code = "INVALID_ARGUMENTS";
+        } else if (e instanceof OverloadedException) {
+            code = "OVERLOADED";
+        } else if (e instanceof DeadlineExceededException) {
+            code = "DEADLINE_EXCEEDED";
+        } else {
+            code = "EXECUTION_ERROR";
+        }
+        McpResponse response = McpResponse.error(code, e.getMessage(), requestId, sessionId);
+        if (e instanceof InvalidArgumentsException invalid) {
+            response.getError().setDetails(Map.of("errors", invalid.getErrors()));
+        } else if (e instanceof OverloadedException overloaded) {
+            response.getError().setDetails(Map.of("bulkhead", overloaded.getBulkhead(), "limit", overloaded.getLimit()));
+        }
+        return response;
+    }
+    
+    private static ServerSentEvent<McpResponse> event(String name, McpResponse response) {
+        return ServerSentEvent.builder(response)
+                .event(name)
+                .build();
+    }
+}
@@ -0,0 +1,454 @@
+package com.example.springaidifymcpserver.model.dify;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import lombok.AccessLevel;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 编译后的工作流执行计划，在加载YAML时一次性构建，运行期只读
+ * <p>
+ * 预先建立节点索引、出边索引、问题分类路由表以及起始节点，
+ * 避免执行过程中对节点和边列表的线性扫描。同时计算拓扑序和
+ * 各节点的入边数量，供并行调度器判断汇合节点何时就绪。LLM系统提示和回答内容在编译时解析为模板，
+ * 无法解析的变量引用记录在诊断信息中。每个变量选择器分配固定槽位，执行上下文按槽位存取。
+ * 函数输入模式由起始节点变量推导，并预编译为参数校验器。
+ * <p>
+ * 执行计划由执行模型WorkflowDefinition编译而来，只引用精简的WorkflowNode和WorkflowEdge，不持有解析出的DifyWorkflow，
+ * 编辑器布局字段和未使用的features配置在编译完成后即可被回收。
+ */
+@Getter
+@Builder(access = AccessLevel.PRIVATE)
+public final class CompiledWorkflow {
+
+    /** sys.query 固定占用第一个槽位 */
+    public static final int SYS_QUERY_SLOT = 0;
+    
+    /** 按属性名和键排序序列化工作流定义，相同内容得到相同的字节 */
+    private static final ObjectMapper CANONICAL_MAPPER = JsonMapper.builder()
+            .enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
+            .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+            .build();
+    
+    private final String workflowId;
+    /**
+     * 执行模型内容的SHA-256（前16字节的十六进制），执行相关的定义有任何改动时都不同，用于区分热更新前后的版本。
+     * 只移动节点等编辑器布局改动不改变指纹
+     */
+    private final String contentHash;
+    private final String name;
+    private final String description;
+    private final String functionName;
+    /** Dify应用类型：workflow、advanced-chat等 */
+    private final String mode;
+    private final WorkflowNode startNode;
+    private final Map<String, WorkflowNode> nodesById;
+    private final Map<String, List<WorkflowEdge>> edgesBySource;
+    private final Map<String, Map<String, String>> classifierRoutes;
+    private final List<String> topologicalOrder;
+    private final Map<String, Integer> topologicalRanks;
+    private final Map<String, Integer> incomingCounts;
+    private final Set<String> streamingLlmNodes;
+    private final Set<String> streamedAnswerNodes;
+    private final Map<String, PromptTemplate> templates;
+    private final List<String> diagnostics;
+    private final Map<String, Integer> slotIndex;
+    private final Map<String, Integer> outputSlots;
+    private final Map<String, Integer> answerSlots;
+    private final List<StartVariable> startVariables;
+    private final InputSchema inputSchema;
+    /** 是否有节点配置了会话记忆，这类工作流的输出依赖会话历史 */
+    private final boolean usesMemory;
+    
+    /**
+     * 起始节点声明的输入变量及其槽位
+     */
+    public record StartVariable(String name, int slot) {
+    }
+    
+    /**
+     * 将解析后的工作流编译为执行计划
+     */
+    public static CompiledWorkflow compile(String workflowId, DifyWorkflow workflow) {
+        if (workflow == null || workflow.getWorkflow() == null || workflow.getWorkflow().getGraph() == null) {
+            throw new IllegalArgumentException("工作流缺少图定义: " + workflowId);
+        }
+        // 转换为只含执行所需字段的执行模型，编辑器模型不随执行计划驻留
+        return compile(workflowId, WorkflowDefinition.of(workflow));
+    }
+    
+    /**
+     * 将执行模型编译为执行计划，从二进制快照加载时不经过编辑器模型
+     */
+    public static CompiledWorkflow compile(String workflowId, WorkflowDefinition definition) {
+        List<WorkflowNode> nodes = definition.getNodes();
+        List<WorkflowEdge> edges = definition.getEdges();
+        
+        // 节点索引，保留YAML中的声明顺序
+        Map<String, WorkflowNode> nodesById = new LinkedHashMap<>(nodes.size() * 2);
+        WorkflowNode startNode = null;
+        for (WorkflowNode node : nodes) {
+            if (nodesById.putIfAbsent(node.getId(), node) != null) {
+                throw new IllegalStateException("重复的节点ID: " + node.getId());
+            }
+            if (startNode == null && "start".equals(node.getType())) {
+                startNode = node;
+            }
+        }
+        
+        // 出边索引
+        Map<String, List<WorkflowEdge>> edgesBySource = new HashMap<>(nodes.size() * 2);
+        for (WorkflowEdge edge : edges) {
+            if (!nodesById.containsKey(edge.getSource()) || !nodesById.containsKey(edge.getTarget())) {
+                throw new IllegalStateException("边引用了不存在的节点: " + edge.getSource() + " -> " + edge.getTarget());
+            }
+            edgesBySource.computeIfAbsent(edge.getSource(), k -> new ArrayList<>()).add(edge);
+        }
+        edgesBySource.replaceAll((k, v) -> List.copyOf(v));
+        
+        // 问题分类路由表: sourceHandle -> target
+        Map<String, Map<String, String>> classifierRoutes = new HashMap<>();
+        for (WorkflowNode node : nodes) {
+            if (!isType(node, "question-classifier")) {
+                continue;
+            }
+            Map<String, String> routes = new HashMap<>();
+            for (WorkflowEdge edge : edgesBySource.getOrDefault(node.getId(), List.of())) {
+                if (edge.getSourceHandle() != null) {
+                    routes.putIfAbsent(edge.getSourceHandle(), edge.getTarget());
+                }
+            }
+            classifierRoutes.put(node.getId(), Map.copyOf(routes));
+        }
+        
+        List<String> topologicalOrder = topologicalSort(nodesById.keySet(), edges);
+        Map<String, Integer> topologicalRanks = new HashMap<>(topologicalOrder.size() * 2);
+        for (int i = 0; i < topologicalOrder.size(); i++) {
+            topologicalRanks.put(topologicalOrder.get(i), i);
+        }
+        
+        // 只统计从起始节点可达的入边，不可达的上游永远不会执行，不能让汇合节点等待它们
+        Set<String> reachable = reachableFrom(startNode, edgesBySource);
+        Map<String, Integer> incomingCounts = new HashMap<>();
+        for (WorkflowEdge edge : edges) {
+            if (reachable.contains(edge.getSource())) {
+                incomingCounts.merge(edge.getTarget(), 1, Integer::sum);
+            }
+        }
+        
+        // 为变量选择器分配槽位：sys.query、起始节点变量、节点输出（text/result）以及每个节点的终止输出
+        Map<String, Integer> slotIndex = new HashMap<>();
+        Map<String, Integer> outputSlots = new HashMap<>();
+        Map<String, Integer> answerSlots = new HashMap<>();
+        List<StartVariable> startVariables = new ArrayList<>();
+        slotIndex.put("sys.query", SYS_QUERY_SLOT);
+        if (startNode != null && startNode.getVariables() != null) {
+            for (DifyWorkflow.Graph.Node.NodeData.Variable variable : startNode.getVariables()) {
+                int slot = assignSlot(slotIndex, startNode.getId() + "." + variable.getVariable());
+                startVariables.add(new StartVariable(variable.getVariable(), slot));
+            }
+        }
+        for (WorkflowNode node : nodes) {
+            if (isType(node, "llm")) {
+                outputSlots.put(node.getId(), assignSlot(slotIndex, node.getId() + ".text"));
+            } else if (isType(node, "knowledge-retrieval")) {
+                outputSlots.put(node.getId(), assignSlot(slotIndex, node.getId() + ".result"));
+            }
+            answerSlots.put(node.getId(), assignSlot(slotIndex, node.getId() + ".answer"));
+        }
+        
+        // 预编译LLM系统提示和回答模板，并在加载时检查变量引用
+        Map<String, PromptTemplate> templates = new HashMap<>();
+        List<String> diagnostics = new ArrayList<>();
+        for (WorkflowNode node : nodes) {
+            PromptTemplate template = compileTemplate(node);
+            if (template != null) {
+                templates.put(node.getId(), template.bind(slotIndex));
+                for (String variable : template.getVariables()) {
+                    String problem = checkVariable(variable, nodesById);
+                    if (problem != null) {
+                        diagnostics.add("节点 " + node.getId() + " 引用了无法解析的变量 {{#" + variable + "#}}: " + problem);
+                    }
+                }
+            }
+        }
+        
+        // 直接把LLM输出作为回答的节点对，流式模式下LLM的token可以直接转发给调用方
+        Set<String> streamingLlmNodes = new HashSet<>();
+        Set<String> streamedAnswerNodes = new HashSet<>();
+        for (WorkflowEdge edge : edges) {
+            WorkflowNode source = nodesById.get(edge.getSource());
+            PromptTemplate answer = templates.get(edge.getTarget());
+            if (isType(source, "llm") && isType(nodesById.get(edge.getTarget()), "answer")
+                    && answer.isSingleVariable()
+                    && answer.getVariables().get(0).equals(source.getId() + ".text")) {
+                streamingLlmNodes.add(source.getId());
+                streamedAnswerNodes.add(edge.getTarget());
+            }
+        }
+        
+        String appName = definition.getName();
+        return CompiledWorkflow.builder()
+                .workflowId(workflowId)
+                .contentHash(contentHash(definition))
+                .name(appName != null ? appName : workflowId)
+                .description(definition.getDescription())
+                .functionName(appName != null ? appName.replaceAll("\\s+", "_").toLowerCase() : workflowId)
+                .mode(definition.getMode())
+                .startNode(startNode)
+                .nodesById(Collections.unmodifiableMap(nodesById))
+                .edgesBySource(Map.copyOf(edgesBySource))
+                .classifierRoutes(Map.copyOf(classifierRoutes))
+                .topologicalOrder(List.copyOf(topologicalOrder))
+                .topologicalRanks(Map.copyOf(topologicalRanks))
+                .incomingCounts(Map.copyOf(incomingCounts))
+                .streamingLlmNodes(Set.copyOf(streamingLlmNodes))
+                .streamedAnswerNodes(Set.copyOf(streamedAnswerNodes))
+                .templates(Map.copyOf(templates))
+                .diagnostics(List.copyOf(diagnostics))
+                .slotIndex(Map.copyOf(slotIndex))
+                .outputSlots(Map.copyOf(outputSlots))
+                .answerSlots(Map.copyOf(answerSlots))
+                .startVariables(List.copyOf(startVariables))
+                .inputSchema(InputSchema.of(startNode))
+                .usesMemory(nodes.stream().anyMatch(WorkflowNode::isUsesMemory))
+                .build();
+    }
+    
+    private static int assignSlot(Map<String, Integer> slotIndex, String selector) {
+        return slotIndex.computeIfAbsent(selector, k -> slotIndex.size());
+    }
+    
+    private static boolean isType(WorkflowNode node, String type) {
+        return type.equals(node.getType());
+    }
+    
+    /**
+     * 编译节点的模板：LLM节点取第一个system角色的提示，回答节点取回答内容
+     */
+    private static PromptTemplate compileTemplate(WorkflowNode node) {
+        if (isType(node, "answer")) {
+            return PromptTemplate.parse(node.getAnswer(), Map.of());
+        }
+        if (!isType(node, "llm")) {
+            return null;
+        }
+        
+        String systemPrompt = "";
+        if (node.getPromptTemplate() != null) {
+            for (Map<String, Object> template : node.getPromptTemplate()) {
+                if ("system".equals(template.get("role"))) {
+                    systemPrompt = (String) template.get("text");
+                    break;
+                }
+            }
+        }
+        
+        // {{#context#}} 指向节点上下文配置的变量选择器，未开启上下文时渲染为空
+        String contextSelector = "";
+        if (node.getContext() != null && node.getContext().isEnabled()) {
+            List<String> variableSelector = node.getContext().getVariableSelector();
+            if (variableSelector != null && variableSelector.size() >= 2) {
+                contextSelector = variableSelector.get(0) + "." + variableSelector.get(1);
+            }
+        }
+        return PromptTemplate.parse(systemPrompt, Map.of("context", contextSelector));
+    }
+    
+    /**
+     * 检查变量引用能否在运行时解析，返回问题描述，可以解析时返回null
+     */
+    private static String checkVariable(String variable, Map<String, WorkflowNode> nodesById) {
+        if (variable.isEmpty()) {
+            return "上下文未开启或变量选择器不完整";
+        }
+        int dot = variable.indexOf('.');
+        if (dot <= 0 || dot == variable.length() - 1) {
+            return "变量格式应为 node.var";
+        }
+        String scope = variable.substring(0, dot);
+        String name = variable.substring(dot + 1);
+        if ("sys".equals(scope)) {
+            return "query".equals(name) ? null : "不支持的系统变量";
+        }
+        WorkflowNode node = nodesById.get(scope);
+        if (node == null) {
+            return "节点不存在";
+        }
+        String type = node.getType();
+        if ("llm".equals(type)) {
+            return "text".equals(name) ? null : "LLM节点只输出text";
+        }
+        if ("knowledge-retrieval".equals(type)) {
+            return "result".equals(name) ? null : "知识检索节点只输出result";
+        }
+        if ("start".equals(type)) {
+            List<DifyWorkflow.Graph.Node.NodeData.Variable> variables = node.getVariables();
+            boolean declared = variables != null && variables.stream().anyMatch(v -> name.equals(v.getVariable()));
+            return declared ? null : "起始节点未声明该变量";
+        }
+        return "该类型的节点没有可引用的输出";
+    }
+    
+    /**
+     * Kahn算法计算拓扑序，图中存在环时抛出异常
+     */
+    private static List<String> topologicalSort(Set<String> nodeIds, List<WorkflowEdge> edges) {
+        Map<String, Integer> inDegree = new HashMap<>(nodeIds.size() * 2);
+        Map<String, List<String>> successors = new HashMap<>(nodeIds.size() * 2);
+        nodeIds.forEach(id -> inDegree.put(id, 0));
+        for (WorkflowEdge edge : edges) {
+            inDegree.merge(edge.getTarget(), 1, Integer::sum);
+            successors.computeIfAbsent(edge.getSource(), k -> new ArrayList<>()).add(edge.getTarget());
+        }
+        
+        Deque<String> queue = new ArrayDeque<>();
+        nodeIds.stream().filter(id -> inDegree.get(id) == 0).forEach(queue::add);
+        List<String> order = new ArrayList<>(nodeIds.size());
+        while (!queue.isEmpty()) {
+            String id = queue.poll();
+            order.add(id);
+            for (String next : successors.getOrDefault(id, List.of())) {
+                if (inDegree.merge(next, -1, Integer::sum) == 0) {
+                    queue.add(next);
+                }
+            }
+        }
+        
+        if (order.size() != nodeIds.size()) {
+            throw new IllegalStateException("工作流图中存在环，无法调度");
+        }
+        return order;
+    }
+    
+    private static Set<String> reachableFrom(WorkflowNode startNode,
+                                             Map<String, List<WorkflowEdge>> edgesBySource) {
+        Set<String> reachable = new HashSet<>();
+        if (startNode == null) {
+            return reachable;
+        }
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(startNode.getId());
+        while (!stack.isEmpty()) {
+            String id = stack.pop();
+            if (reachable.add(id)) {
+                for (WorkflowEdge edge : edgesBySource.getOrDefault(id, List.of())) {
+                    stack.push(edge.getTarget());
+                }
+            }
+        }
+        return reachable;
+    }
+    
+    /**
+     * 根据节点ID获取节点
+     */
+    public WorkflowNode getNode(String nodeId) {
+        return nodesById.get(nodeId);
+    }
+    
+    /**
+     * 获取从指定节点出发的边
+     */
+    public List<WorkflowEdge> getEdgesFrom(String nodeId) {
+        return edgesBySource.getOrDefault(nodeId, List.of());
+    }
+    
+    /**
+     * 节点在拓扑序中的位置
+     */
+    public int getTopologicalRank(String nodeId) {
+        return topologicalRanks.getOrDefault(nodeId, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * 节点来自可达上游的入边数量
+     */
+    public int getIncomingCount(String nodeId) {
+        return incomingCounts.getOrDefault(nodeId, 0);
+    }
+    
+    /**
+     * LLM节点的输出是否直接作为回答，可以在流式模式下逐token转发
+     */
+    public boolean isStreamingLlmNode(String nodeId) {
+        return streamingLlmNodes.contains(nodeId);
+    }
+    
+    /**
+     * 回答节点的内容是否已经由上游LLM节点流式输出
+     */
+    public boolean isStreamedAnswerNode(String nodeId) {
+        return streamedAnswerNodes.contains(nodeId);
+    }
+    
+    /**
+     * 创建一个与本执行计划槽位布局匹配的空上下文
+     */
+    public ExecutionContext newContext() {
+        return new ExecutionContext(slotIndex.size());
+    }
+    
+    /**
+     * 变量选择器对应的槽位，无法解析时返回-1
+     */
+    public int getSlot(String selector) {
+        return slotIndex.getOrDefault(selector, -1);
+    }
+    
+    /**
+     * 节点主输出（LLM的text、知识检索的result）的槽位，节点没有主输出时返回-1
+     */
+    public int getOutputSlot(String nodeId) {
+        return outputSlots.getOrDefault(nodeId, -1);
+    }
+    
+    /**
+     * 节点终止输出（回答内容或错误提示）的槽位
+     */
+    public int getAnswerSlot(String nodeId) {
+        return answerSlots.getOrDefault(nodeId, -1);
+    }
+    
+    /**
+     * 节点的预编译模板，节点没有模板时返回null
+     */
+    public PromptTemplate getTemplate(String nodeId) {
+        return templates.get(nodeId);
+    }
+    
+    private static String contentHash(WorkflowDefinition definition) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(CANONICAL_MAPPER.writeValueAsBytes(definition));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException | JsonProcessingException e) {
+            throw new IllegalStateException("无法计算工作流内容指纹", e);
+        }
+    }
+    
+    /**
+     * 根据分类ID获取问题分类节点的目标节点，找不到时返回null
+     */
+    public String getClassifierTarget(String nodeId, String classId) {
+        Map<String, String> routes = classifierRoutes.get(nodeId);
+        return routes != null ? routes.get(classId) : null;
+    }
+}
@@ -106,6 +106,7 @@ public class DifyWorkflow {
                 private List<String> datasetIds;
                 private Map<String, Object> memory;
                 private Map<String, Object> model;
+                private Map<String, Object> multipleRetrievalConfig;
                 private List<Map<String, Object>> promptTemplate;
                 private List<String> queryVariableSelector;
                 private String retrievalMode;
@@ -133,6 +134,12 @@ public class DifyWorkflow {
                 public static class Variable {
                     private List<String> valueSelector;
                     private String variable;
+                    // 起始节点变量的声明
+                    private String label;
+                    private String type;
+                    private Boolean required;
+                    private Integer maxLength;
+                    private List<String> options;
                 }
             }
             
@@ -179,23 +186,4 @@ public class DifyWorkflow {
                 .filter(edge -> nodeId.equals(edge.getSource()))
                 .toList();
     }
-    
-    /**
-     * 根据工作流分析生成函数输入模式
-     */
-    public Map<String, Object> generateInputSchema() {
-        // 这里只是一个简单实现，真实情况下需要根据工作流结构和节点类型生成
-        Map<String, Object> properties = Map.of(
-                "query", Map.of(
-                        "type", "string",
-                        "description", "用户查询内容"
-                )
-        );
-        
-        return Map.of(
-                "type", "object",
-                "properties", properties,
-                "required", List.of("query")
-        );
-    }
 }
\ No newline at end of file
@@ -0,0 +1,49 @@
+package com.example.springaidifymcpserver.model.dify;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 单次工作流执行的变量上下文
+ * <p>
+ * 每个变量选择器在编译时分配固定的槽位，运行时按下标读写数组，不需要拼接键或哈希查找。
+ * 底层使用AtomicReferenceArray，并发执行的分支可以安全地同时读写。
+ */
+public final class ExecutionContext {
+
+    private final AtomicReferenceArray<Object> values;
+    
+    ExecutionContext(int slotCount) {
+        this.values = new AtomicReferenceArray<>(slotCount);
+    }
+    
+    /**
+     * 读取槽位的值，槽位为-1（编译时无法解析的变量）或尚未写入时返回null
+     */
+    public Object get(int slot) {
+        return slot < 0 ? null : values.get(slot);
+    }
+    
+    /**
+     * 以字符串形式读取槽位的值
+     */
+    public String getString(int slot) {
+        Object value = get(slot);
+        return value != null ? value.toString() : null;
+    }
+    
+    /**
+     * 写入槽位的值
+     */
+    public void set(int slot, Object value) {
+        if (slot >= 0) {
+            values.set(slot, value);
+        }
+    }
+    
+    /**
+     * 槽位数量
+     */
+    public int size() {
+        return values.length();
+    }
+}
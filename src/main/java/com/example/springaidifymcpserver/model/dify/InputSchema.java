@@ -0,0 +1,116 @@
+package com.example.springaidifymcpserver.model.dify;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.networknt.schema.JsonSchema;
+import com.networknt.schema.JsonSchemaFactory;
+import com.networknt.schema.SpecVersion;
+import com.networknt.schema.ValidationMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 工作流的函数输入模式
+ * <p>
+ * 由起始节点声明的变量推导：query（即sys.query）总是必填的非空字符串，文本变量映射为string并带上maxLength，
+ * 下拉选择映射为枚举，数字变量映射为number。模式在工作流编译时一次性编译为校验器，
+ * 每次调用只需把参数转换为JsonNode并执行校验。
+ */
+public final class InputSchema {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonSchemaFactory FACTORY = JsonSchemaFactory.getInstance(SpecVersion.VersionFlag.V7);
+    
+    private final Map<String, Object> schema;
+    private final JsonSchema validator;
+    
+    private InputSchema(Map<String, Object> schema) {
+        this.schema = schema;
+        this.validator = FACTORY.getSchema(MAPPER.valueToTree(schema));
+        this.validator.initializeValidators();
+    }
+    
+    /**
+     * 根据起始节点的变量声明生成输入模式，没有起始节点时只包含query
+     */
+    public static InputSchema of(WorkflowNode startNode) {
+        Map<String, Object> properties = new LinkedHashMap<>();
+        List<String> required = new ArrayList<>();
+        properties.put("query", Map.of(
+                "type", "string",
+                "minLength", 1,
+                "description", "用户查询内容"));
+        required.add("query");
+        
+        List<DifyWorkflow.Graph.Node.NodeData.Variable> variables =
+                startNode != null ? startNode.getVariables() : null;
+        if (variables != null) {
+            for (DifyWorkflow.Graph.Node.NodeData.Variable variable : variables) {
+                if (variable.getVariable() == null || properties.containsKey(variable.getVariable())) {
+                    continue;
+                }
+                properties.put(variable.getVariable(), property(variable));
+                if (Boolean.TRUE.equals(variable.getRequired())) {
+                    required.add(variable.getVariable());
+                }
+            }
+        }
+        
+        Map<String, Object> schema = new LinkedHashMap<>();
+        schema.put("type", "object");
+        schema.put("properties", Collections.unmodifiableMap(properties));
+        schema.put("required", List.copyOf(required));
+        return new InputSchema(Collections.unmodifiableMap(schema));
+    }
+    
+    private static Map<String, Object> property(DifyWorkflow.Graph.Node.NodeData.Variable variable) {
+        Map<String, Object> property = new LinkedHashMap<>();
+        String type = variable.getType() != null ? variable.getType() : "text-input";
+        switch (type) {
+            case "text-input", "paragraph" -> {
+                property.put("type", "string");
+                if (variable.getMaxLength() != null && variable.getMaxLength() > 0) {
+                    property.put("maxLength", variable.getMaxLength());
+                }
+            }
+            case "select" -> {
+                property.put("type", "string");
+                if (variable.getOptions() != null && !variable.getOptions().isEmpty()) {
+                    property.put("enum", List.copyOf(variable.getOptions()));
+                }
+            }
+            case "number" -> property.put("type", "number");
+            default -> {
+                // 文件等其他类型不做类型约束
+            }
+        }
+        if (variable.getLabel() != null) {
+            property.put("description", variable.getLabel());
+        }
+        return Collections.unmodifiableMap(property);
+    }
+    
+    /**
+     * JSON Schema形式的输入模式
+     */
+    public Map<String, Object> getSchema() {
+        return schema;
+    }
+    
+    /**
+     * 校验调用参数，返回所有不满足模式的问题，参数有效时返回空列表
+     */
+    public List<String> validate(Map<String, Object> arguments) {
+        JsonNode node = MAPPER.valueToTree(arguments != null ? arguments : Map.of());
+        Set<ValidationMessage> messages = validator.validate(node);
+        if (messages.isEmpty()) {
+            return List.of();
+        }
+        return messages.stream().map(ValidationMessage::getMessage).sorted().toList();
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.springaidifymcpserver.model.dify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 预编译的模板，加载时把文本拆分为字面量和变量引用（{{#node.var#}}）交替的片段
+ * <p>
+ * 变量引用在编译时绑定到执行上下文的槽位。渲染时先读取所有变量，
+ * 再按总长度一次性分配StringBuilder，避免逐个替换产生的中间字符串。
+ */
+public final class PromptTemplate {
+
+    private static final String OPEN = "{{#";
+    private static final String CLOSE = "#}}";
+    
+    /** 字面量片段，比变量多一个：literals[i] 位于 variables[i] 之前 */
+    private final String[] literals;
+    private final String[] variables;
+    private final int[] slots;
+    private final int literalLength;
+    
+    private PromptTemplate(String[] literals, String[] variables, int[] slots) {
+        this.literals = literals;
+        this.variables = variables;
+        this.slots = slots;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+    
+    /**
+     * 解析模板文本，返回的模板尚未绑定槽位
+     *
+     * @param aliases 变量别名，例如LLM节点中的context指向其上下文变量选择器
+     */
+    public static PromptTemplate parse(String text, Map<String, String> aliases) {
+        List<String> literals = new ArrayList<>();
+        List<String> variables = new ArrayList<>();
+        String source = text != null ? text : "";
+        int position = 0;
+        while (true) {
+            int open = source.indexOf(OPEN, position);
+            int close = open < 0 ? -1 : source.indexOf(CLOSE, open + OPEN.length());
+            if (open < 0 || close < 0) {
+                literals.add(source.substring(position));
+                break;
+            }
+            literals.add(source.substring(position, open));
+            String reference = source.substring(open + OPEN.length(), close).trim();
+            variables.add(aliases.getOrDefault(reference, reference));
+            position = close + CLOSE.length();
+        }
+        int[] slots = new int[variables.size()];
+        Arrays.fill(slots, -1);
+        return new PromptTemplate(literals.toArray(String[]::new), variables.toArray(String[]::new), slots);
+    }
+    
+    /**
+     * 将变量引用绑定到槽位，无法解析的变量绑定为-1
+     */
+    PromptTemplate bind(Map<String, Integer> slotIndex) {
+        int[] bound = new int[variables.length];
+        for (int i = 0; i < variables.length; i++) {
+            bound[i] = slotIndex.getOrDefault(variables[i], -1);
+        }
+        return new PromptTemplate(literals, variables, bound);
+    }
+    
+    /**
+     * 模板中引用的变量选择器（node.var形式）
+     */
+    public List<String> getVariables() {
+        return List.of(variables);
+    }
+    
+    /**
+     * 模板是否仅由一个变量引用组成
+     */
+    public boolean isSingleVariable() {
+        return variables.length == 1 && literalLength == 0;
+    }
+    
+    /**
+     * 第一个变量绑定的槽位，模板没有变量时返回-1
+     */
+    public int firstSlot() {
+        return slots.length > 0 ? slots[0] : -1;
+    }
+    
+    /**
+     * 渲染模板，读取不到的变量按空字符串处理
+     */
+    public String render(ExecutionContext context) {
+        if (variables.length == 0) {
+            return literals[0];
+        }
+        String[] values = new String[slots.length];
+        int length = literalLength;
+        for (int i = 0; i < slots.length; i++) {
+            String value = context.getString(slots[i]);
+            values[i] = value != null ? value : "";
+            length += values[i].length();
+        }
+        StringBuilder builder = new StringBuilder(length);
+        builder.append(literals[0]);
+        for (int i = 0; i < values.length; i++) {
+            builder.append(values[i]).append(literals[i + 1]);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.springaidifymcpserver.model.dify;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 工作流的执行模型，编译执行计划只需要这些内容
+ * <p>
+ * 由编辑器模型DifyWorkflow去掉画布布局、features配置和环境变量等与执行无关的部分得到，
+ * 节点和边已经是运行时使用的精简形式。二进制快照保存的就是这个模型，启动时解码后直接编译，
+ * 不需要经过编辑器模型。
+ */
+@Getter
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@NoArgsConstructor(access = AccessLevel.PRIVATE, force = true)
+public final class WorkflowDefinition {
+
+    private final String name;
+    private final String description;
+    /** Dify应用类型：workflow、advanced-chat等 */
+    private final String mode;
+    private final List<WorkflowNode> nodes;
+    private final List<WorkflowEdge> edges;
+    
+    /**
+     * 从编辑器模型提取执行模型
+     */
+    public static WorkflowDefinition of(DifyWorkflow workflow) {
+        if (workflow == null || workflow.getWorkflow() == null || workflow.getWorkflow().getGraph() == null) {
+            throw new IllegalArgumentException("工作流缺少图定义");
+        }
+        DifyWorkflow.App app = workflow.getApp();
+        DifyWorkflow.Graph graph = workflow.getWorkflow().getGraph();
+        return new WorkflowDefinition(
+                app != null ? app.getName() : null,
+                app != null ? app.getDescription() : null,
+                app != null ? app.getMode() : null,
+                graph.getNodes() != null ? graph.getNodes().stream().map(WorkflowNode::of).toList() : List.of(),
+                graph.getEdges() != null ? graph.getEdges().stream().map(WorkflowEdge::of).toList() : List.of());
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.springaidifymcpserver.model.dify;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * 运行时使用的精简边，只保留调度需要的起点、终点和起点句柄（问题分类的类别ID）
+ */
+@Getter
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@NoArgsConstructor(access = AccessLevel.PRIVATE, force = true)
+public final class WorkflowEdge {
+
+    private final String source;
+    private final String sourceHandle;
+    private final String target;
+    
+    /**
+     * 从编辑器模型的边构建运行时边，节点ID与节点共享驻留后的字符串
+     */
+    public static WorkflowEdge of(DifyWorkflow.Graph.Edge edge) {
+        return new WorkflowEdge(
+                WorkflowNode.intern(edge.getSource()),
+                WorkflowNode.intern(edge.getSourceHandle()),
+                WorkflowNode.intern(edge.getTarget()));
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.springaidifymcpserver.model.dify;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 运行时使用的精简节点
+ * <p>
+ * 只复制执行需要的节点参数：各类型节点的提示、回答、模型、分类、检索配置和起始变量。
+ * 位置、尺寸、选中状态等编辑器布局字段，以及描述、vision配置等执行时不读取的字段都不保留。
+ * 从编辑器模型构建时ID和类型驻留（intern），同一ID在节点、边和各索引之间共享同一个字符串实例。
+ */
+@Getter
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@NoArgsConstructor(access = AccessLevel.PRIVATE, force = true)
+public final class WorkflowNode {
+
+    private final String id;
+    private final String type;
+    private final String title;
+    /** 起始节点声明的输入变量 */
+    private final List<DifyWorkflow.Graph.Node.NodeData.Variable> variables;
+    /** LLM和问题分类节点的模型配置 */
+    private final Map<String, Object> model;
+    /** LLM节点的提示模板和上下文 */
+    private final List<Map<String, Object>> promptTemplate;
+    private final DifyWorkflow.Graph.Node.NodeData.Context context;
+    /** 是否配置了会话记忆 */
+    private final boolean usesMemory;
+    /** 回答节点的内容 */
+    private final String answer;
+    /** 问题分类节点的类别 */
+    private final List<DifyWorkflow.Graph.Node.NodeData.NodeClass> classes;
+    /** 知识检索节点读取查询文本的变量选择器 */
+    private final List<String> queryVariableSelector;
+    /** 知识检索节点的数据集、检索方式和召回配置 */
+    private final List<String> datasetIds;
+    private final String retrievalMode;
+    private final Map<String, Object> multipleRetrievalConfig;
+    
+    /**
+     * 从编辑器模型的节点构建运行时节点
+     */
+    public static WorkflowNode of(DifyWorkflow.Graph.Node node) {
+        DifyWorkflow.Graph.Node.NodeData data = node.getData();
+        if (data == null) {
+            return new WorkflowNode(intern(node.getId()), null, null, null, null, null, null, false, null, null,
+                    null, null, null, null);
+        }
+        return new WorkflowNode(
+                intern(node.getId()),
+                intern(data.getType()),
+                data.getTitle(),
+                data.getVariables(),
+                data.getModel(),
+                data.getPromptTemplate(),
+                data.getContext(),
+                data.getMemory() != null && !data.getMemory().isEmpty(),
+                data.getAnswer(),
+                data.getClasses(),
+                data.getQueryVariableSelector(),
+                data.getDatasetIds(),
+                data.getRetrievalMode(),
+                data.getMultipleRetrievalConfig());
+    }
+    
+    static String intern(String value) {
+        return value != null ? value.intern() : null;
+    }
+}
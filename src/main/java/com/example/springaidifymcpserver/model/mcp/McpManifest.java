@@ -1,5 +1,6 @@
 package com.example.springaidifymcpserver.model.mcp;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Builder;
 import lombok.Data;
 
@@ -11,12 +12,14 @@ import java.util.Map;
  */
 @Data
 @Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class McpManifest {
     private ServerInfo server;
     private List<McpFunction> functions;
     
     @Data
     @Builder
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     public static class ServerInfo {
         private String id;
         private String name;
@@ -29,6 +32,7 @@ public class McpManifest {
         
         @Data
         @Builder
+        @JsonInclude(JsonInclude.Include.NON_NULL)
         public static class Auth {
             private String type; // "none", "bearer", "oauth", etc.
             private Map<String, Object> config;
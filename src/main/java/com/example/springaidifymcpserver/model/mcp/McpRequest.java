@@ -10,7 +10,7 @@ import java.util.Map;
  */
 @Data
 public class McpRequest {
-    
+
     private String name;
     
     private Map<String, Object> arguments;
@@ -25,4 +25,11 @@ public class McpRequest {
     
     // 用户上下文信息
     private Map<String, Object> context;
+    
+    // 为true时在响应的metadata中附带各节点的执行跟踪
+    private boolean trace;
+    
+    // 请求的截止时间（毫秒），到期后取消执行并返回DEADLINE_EXCEEDED
+    @JsonProperty("timeout_ms")
+    private Long timeoutMs;
 }
\ No newline at end of file
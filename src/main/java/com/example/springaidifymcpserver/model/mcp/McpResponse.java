@@ -14,7 +14,7 @@ import java.util.Map;
 @Builder
 @JsonInclude(JsonInclude.Include.NON_NULL)
 public class McpResponse {
-    
+
     private Object result;
     
     @JsonProperty("content_type")
@@ -30,6 +30,12 @@ public class McpResponse {
     @JsonProperty("session_id")
     private String sessionId;
     
+    /**
+     * 批量调用中对应请求在批次中的下标，与request_id无关，只在批量响应中出现
+     */
+    @JsonProperty("batch_index")
+    private Long batchIndex;
+    
     @Data
     @Builder
     public static class Error {
@@ -50,6 +56,30 @@ public class McpResponse {
                 .build();
     }
     
+    /**
+     * 创建流式响应片段
+     */
+    public static McpResponse chunk(String content, int index, String requestId, String sessionId) {
+        return McpResponse.builder()
+                .result(content)
+                .contentType("text/plain")
+                .metadata(Map.of("event", "chunk", "index", index))
+                .requestId(requestId)
+                .sessionId(sessionId)
+                .build();
+    }
+    
+    /**
+     * 创建流式响应的结束帧，只携带元数据
+     */
+    public static McpResponse done(Map<String, Object> metadata, String requestId, String sessionId) {
+        return McpResponse.builder()
+                .metadata(metadata)
+                .requestId(requestId)
+                .sessionId(sessionId)
+                .build();
+    }
+    
     /**
      * 创建错误响应
      */
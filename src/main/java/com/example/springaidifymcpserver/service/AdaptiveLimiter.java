@@ -0,0 +1,116 @@
+package com.example.springaidifymcpserver.service;
+
+/**
+ * 基于延迟的AIMD自适应并发上限
+ * <p>
+ * 同时跟踪两条调用耗时的指数移动平均：变化快的近期延迟和变化慢的基线延迟。
+ * 调用成功且近期延迟不超过基线的tolerance倍时，如果当前并发已用到上限的一半以上，上限加1（加性增）；
+ * 调用失败、超过慢调用阈值，或者近期延迟超过基线的tolerance倍（上游开始排队）时，上限乘以回退系数（乘性减）。
+ * 上游逐渐变慢时，在延迟远未达到超时之前上限就开始收缩，多出的请求被直接拒绝而不是在上游排队拉高尾延迟；
+ * 延迟长期处于新的水平时基线随之跟上，上限重新回升。
+ */
+final class AdaptiveLimiter {
+
+    /** 近期延迟的平滑系数，约反映最近10次调用 */
+    private static final double RECENT_ALPHA = 0.2;
+    /** 基线延迟的平滑系数，约反映最近500次调用 */
+    private static final double BASELINE_ALPHA = 0.002;
+    /** 基线建立前需要的调用次数，期间只按失败和慢调用阈值调整 */
+    private static final int WARMUP_SAMPLES = 10;
+    
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double tolerance;
+    private final long slowCallNanos;
+    private double limit;
+    private int inFlight;
+    private double recentNanos;
+    private double baselineNanos;
+    private long samples;
+    
+    /**
+     * @param tolerance     近期延迟相对基线的容忍倍数
+     * @param slowCallNanos 无论基线如何都按失败处理的调用耗时
+     */
+    AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, double backoffRatio,
+                    double tolerance, long slowCallNanos) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.backoffRatio = backoffRatio;
+        this.tolerance = Math.max(1.0, tolerance);
+        this.slowCallNanos = slowCallNanos;
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    }
+    
+    /**
+     * 尝试占用一个并发名额，已达上限时返回false
+     */
+    synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+    
+    /**
+     * 调用成功结束，按耗时调整上限
+     */
+    synchronized void onSuccess(long rttNanos) {
+        boolean congested = rttNanos >= slowCallNanos || updateLatency(rttNanos);
+        adjust(congested);
+    }
+    
+    /**
+     * 调用失败或因截止时间到期被取消，收缩上限
+     */
+    synchronized void onDropped() {
+        adjust(true);
+    }
+    
+    /**
+     * 调用被调用方取消，只归还名额，不调整上限
+     */
+    synchronized void releaseIgnored() {
+        inFlight--;
+    }
+    
+    /**
+     * 更新近期和基线延迟，返回近期延迟是否已超过基线的容忍范围
+     */
+    private boolean updateLatency(long rttNanos) {
+        if (samples++ == 0) {
+            recentNanos = rttNanos;
+            baselineNanos = rttNanos;
+            return false;
+        }
+        recentNanos += RECENT_ALPHA * (rttNanos - recentNanos);
+        baselineNanos += BASELINE_ALPHA * (rttNanos - baselineNanos);
+        return samples > WARMUP_SAMPLES && recentNanos > baselineNanos * tolerance;
+    }
+    
+    private void adjust(boolean congested) {
+        if (congested) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+        } else if (inFlight * 2 >= limit) {
+            limit = Math.min(maxLimit, limit + 1);
+        }
+        inFlight--;
+    }
+    
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+    
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+    
+    /**
+     * 基线延迟（纳秒），尚无成功调用时为0
+     */
+    synchronized double getBaselineNanos() {
+        return baselineNanos;
+    }
+}
@@ -0,0 +1,408 @@
+package com.example.springaidifymcpserver.service;
+
+import com.example.springaidifymcpserver.model.dify.CompiledWorkflow;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * 工作流执行检查点
+ * <p>
+ * 每个节点完成后，把它写入上下文的输出、终止输出和激活的下游节点追加到本地日志（checkpoints.log）。
+ * 带相同request_id的重试请求，如果工作流和参数都没有变化，已完成的节点直接从检查点恢复，
+ * 从最后完成的节点继续执行，上游的LLM调用不会重复付费。参数或工作流定义不同时（包括热更新后的新版本）丢弃旧的检查点重新执行。
+ * 运行成功结束后删除它的检查点并在日志中写入结束标记，相同request_id的后续调用重新执行，不会重放上次的结果。
+ * <p>
+ * 日志记录格式为 [长度][CRC32][Smile编码的Entry]，启动时重放日志重建内存索引，
+ * 遇到写了一半或损坏的记录时截断到最后一条完整记录。所有文件操作都在一个专用的写线程上进行：
+ * 节点完成时只更新内存索引并把记录交给写线程，执行线程（Netty事件循环）不等待磁盘I/O；
+ * 开启sync时写线程在积压的记录都写完后强制刷盘一次，多条记录共用一次fsync。
+ * 写线程还定期删除超过保留时间的运行，并把仍然有效的记录写入新日志后原子替换旧日志。
+ */
+@Component
+@Slf4j
+public class CheckpointStore {
+
+    private static final String LOG_FILE = "checkpoints.log";
+    private static final int HEADER_LENGTH = 8;
+    /** 写线程积压的记录上限，超过时丢弃新的记录，只影响失败后能恢复的节点数 */
+    private static final int MAX_PENDING_WRITES = 10_000;
+    
+    private final boolean enabled;
+    private final boolean sync;
+    private final long retentionMillis;
+    private final Path logFile;
+    private final ObjectMapper mapper;
+    private final ObjectMapper fingerprintMapper;
+    private final Map<String, Run> runs = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingWrites = new AtomicInteger();
+    /** 上次压缩以来成功结束的运行数，它们的记录留在日志中直到下次压缩 */
+    private final AtomicInteger completedRuns = new AtomicInteger();
+    private final ScheduledExecutorService writer;
+    /** 启动后只在写线程上访问 */
+    private FileChannel channel;
+    
+    public CheckpointStore(@Value("${mcp.server.checkpoint.path:}") String path,
+                           @Value("${mcp.server.checkpoint.sync:false}") boolean sync,
+                           @Value("${mcp.server.checkpoint.retention:PT1H}") Duration retention,
+                           @Value("${mcp.server.checkpoint.compaction-interval:PT5M}") Duration compactionInterval) {
+        this.sync = sync;
+        this.retentionMillis = retention.toMillis();
+        this.logFile = path == null || path.isEmpty() ? null : Path.of(path).resolve(LOG_FILE);
+        this.mapper = new ObjectMapper(new SmileFactory())
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.fingerprintMapper = new ObjectMapper()
+                .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+        this.enabled = logFile != null && open();
+        if (enabled) {
+            this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "checkpoint-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = compactionInterval.toMillis();
+            writer.scheduleWithFixedDelay(this::compact, interval, interval, TimeUnit.MILLISECONDS);
+            log.info("已开启执行检查点: {}，恢复 {} 个运行", logFile, runs.size());
+        } else {
+            this.writer = null;
+        }
+    }
+    
+    /**
+     * 日志中的一条记录：一个运行中一个节点的完成结果；nodeId为null时是运行成功结束的标记
+     */
+    record Entry(String runId, String workflowId, String fingerprint, String nodeId,
+                 String output, String answer, List<String> targets, long timestamp) {
+    }
+    
+    /**
+     * 节点完成时写入上下文的值
+     *
+     * @param output  节点主输出（LLM的text、知识检索的result）
+     * @param answer  节点终止输出
+     * @param targets 激活的下游节点
+     */
+    public record NodeCheckpoint(String output, String answer, List<String> targets) {
+    }
+    
+    /**
+     * 一个可恢复的运行
+     */
+    public final class Run {
+        
+        private final String runId;
+        private final String workflowId;
+        private final String fingerprint;
+        private final Map<String, NodeCheckpoint> nodes = new ConcurrentHashMap<>();
+        private volatile long updatedAt;
+        
+        private Run(String runId, String workflowId, String fingerprint) {
+            this.runId = runId;
+            this.workflowId = workflowId;
+            this.fingerprint = fingerprint;
+            this.updatedAt = System.currentTimeMillis();
+        }
+        
+        /**
+         * 节点在之前的尝试中完成时返回其检查点，否则返回null
+         */
+        public NodeCheckpoint get(String nodeId) {
+            return nodes.get(nodeId);
+        }
+        
+        /**
+         * 已有检查点的节点数
+         */
+        public int size() {
+            return nodes.size();
+        }
+        
+        /**
+         * 记录节点完成，日志由写线程异步追加，写入失败只记录日志，不影响执行
+         */
+        public void record(String nodeId, String output, String answer, Collection<String> targets) {
+            NodeCheckpoint checkpoint = new NodeCheckpoint(output, answer, List.copyOf(targets));
+            long now = System.currentTimeMillis();
+            // 先更新索引再提交日志，压缩在写日志之前执行时记录至多重复一次，不会丢失
+            nodes.put(nodeId, checkpoint);
+            updatedAt = now;
+            submit(new Entry(runId, workflowId, fingerprint, nodeId, output, answer, checkpoint.targets(), now));
+        }
+        
+        /**
+         * 运行成功结束，删除它的检查点
+         */
+        public void complete() {
+            if (runs.remove(runId, this)) {
+                completedRuns.incrementAndGet();
+                submit(new Entry(runId, workflowId, fingerprint, null, null, null, List.of(),
+                        System.currentTimeMillis()));
+            }
+        }
+    }
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * 是否存在与本次调用匹配的检查点，即这是一次可以恢复的重试
+     */
+    public boolean hasCheckpoint(String runId, CompiledWorkflow workflow, Map<String, Object> inputs) {
+        if (!enabled || runId == null) {
+            return false;
+        }
+        Run run = runs.get(runId);
+        return run != null && run.size() > 0 && run.workflowId.equals(workflow.getWorkflowId())
+                && run.fingerprint.equals(fingerprint(workflow, inputs));
+    }
+    
+    /**
+     * 打开运行：存在匹配的检查点时返回它，否则开始一个新的运行；未开启检查点时返回null
+     */
+    public Run open(String runId, CompiledWorkflow workflow, Map<String, Object> inputs) {
+        if (!enabled || runId == null) {
+            return null;
+        }
+        String fingerprint = fingerprint(workflow, inputs);
+        return runs.compute(runId, (id, existing) -> {
+            if (existing != null && existing.workflowId.equals(workflow.getWorkflowId())
+                    && existing.fingerprint.equals(fingerprint)) {
+                if (existing.size() > 0) {
+                    log.info("从检查点恢复运行 {}: 已完成 {} 个节点", runId, existing.size());
+                }
+                return existing;
+            }
+            return new Run(id, workflow.getWorkflowId(), fingerprint);
+        });
+    }
+    
+    /**
+     * 工作流ID、工作流定义的内容指纹和按键排序的参数的SHA-256
+     */
+    private String fingerprint(CompiledWorkflow workflow, Map<String, Object> inputs) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(workflow.getWorkflowId().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(workflow.getContentHash().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(fingerprintMapper.writeValueAsBytes(inputs));
+            return HexFormat.of().formatHex(digest.digest(), 0, 16);
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private boolean open() {
+        try {
+            Files.createDirectories(logFile.getParent());
+            channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            long valid = replay();
+            if (valid < channel.size()) {
+                log.warn("检查点日志末尾有不完整的记录，截断到 {} 字节", valid);
+                channel.truncate(valid);
+            }
+            channel.position(valid);
+            return true;
+        } catch (IOException e) {
+            log.warn("无法打开检查点日志 {}，不记录检查点: {}", logFile, e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * 重放日志重建索引，返回最后一条完整记录的结束位置
+     */
+    private long replay() throws IOException {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        long position = 0;
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        while (position + HEADER_LENGTH <= size) {
+            header.clear();
+            channel.read(header, position);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length <= 0 || position + HEADER_LENGTH + length > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            channel.read(body, position + HEADER_LENGTH);
+            if (crc(body.array()) != checksum) {
+                break;
+            }
+            Entry entry;
+            try {
+                entry = mapper.readValue(body.array(), Entry.class);
+            } catch (IOException e) {
+                break;
+            }
+            if (entry.timestamp() >= cutoff) {
+                apply(entry);
+            }
+            position += HEADER_LENGTH + length;
+        }
+        return position;
+    }
+    
+    private void apply(Entry entry) {
+        if (entry.nodeId() == null) {
+            runs.remove(entry.runId());
+            completedRuns.incrementAndGet();
+            return;
+        }
+        Run run = runs.get(entry.runId());
+        if (run == null || !run.fingerprint.equals(entry.fingerprint()) || !run.workflowId.equals(entry.workflowId())) {
+            run = new Run(entry.runId(), entry.workflowId(), entry.fingerprint());
+            runs.put(entry.runId(), run);
+        }
+        run.nodes.put(entry.nodeId(), new NodeCheckpoint(entry.output(), entry.answer(), entry.targets()));
+        run.updatedAt = Math.max(run.updatedAt, entry.timestamp());
+    }
+    
+    private void submit(Entry entry) {
+        if (pendingWrites.incrementAndGet() > MAX_PENDING_WRITES) {
+            pendingWrites.decrementAndGet();
+            return;
+        }
+        try {
+            writer.execute(() -> append(entry));
+        } catch (RejectedExecutionException e) {
+            // 关闭期间的记录直接丢弃
+            pendingWrites.decrementAndGet();
+        }
+    }
+    
+    /**
+     * 在写线程上追加一条记录，开启sync时积压的记录全部写完后才刷盘
+     */
+    private void append(Entry entry) {
+        try {
+            if (channel != null) {
+                write(channel, entry);
+            }
+            if (pendingWrites.decrementAndGet() == 0 && sync && channel != null) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            log.warn("写入检查点失败 {}/{}: {}", entry.runId(), entry.nodeId(), e.getMessage());
+        }
+    }
+    
+    private void write(FileChannel target, Entry entry) throws IOException {
+        byte[] body = mapper.writeValueAsBytes(entry);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_LENGTH + body.length)
+                .putInt(body.length)
+                .putInt(crc(body))
+                .put(body)
+                .flip();
+        while (record.hasRemaining()) {
+            target.write(record);
+        }
+    }
+    
+    private static int crc(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+    
+    /**
+     * 删除超过保留时间的运行，把其余运行的检查点写入新日志后替换旧日志，同时丢弃已成功结束的运行的记录；在写线程上执行
+     */
+    void compact() {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        List<String> expired = new ArrayList<>();
+        runs.forEach((runId, run) -> {
+            if (run.updatedAt < cutoff) {
+                expired.add(runId);
+            }
+        });
+        int completed = completedRuns.getAndSet(0);
+        if (expired.isEmpty() && completed == 0) {
+            return;
+        }
+        expired.forEach(runs::remove);
+        
+        Path temp = logFile.resolveSibling(LOG_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (Run run : runs.values()) {
+                for (Map.Entry<String, NodeCheckpoint> node : run.nodes.entrySet()) {
+                    NodeCheckpoint checkpoint = node.getValue();
+                    write(out, new Entry(run.runId, run.workflowId, run.fingerprint, node.getKey(),
+                            checkpoint.output(), checkpoint.answer(), checkpoint.targets(), run.updatedAt));
+                }
+            }
+            out.force(true);
+            Files.move(temp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel.close();
+            channel = FileChannel.open(logFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+            log.debug("压缩检查点日志: 删除 {} 个过期运行和 {} 个已结束的运行，保留 {} 个",
+                    expired.size(), completed, runs.size());
+        } catch (IOException e) {
+            log.warn("压缩检查点日志失败: {}", e.getMessage());
+            completedRuns.addAndGet(completed);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // 临时文件留到下次压缩时覆盖
+            }
+        }
+    }
+    
+    /**
+     * 等待积压的记录写完后关闭日志
+     */
+    @PreDestroy
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.shutdown();
+            try {
+                if (!writer.awaitTermination(5, TimeUnit.SECONDS)) {
+                    log.warn("检查点日志未能在关闭前写完积压的记录");
+                    writer.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package com.example.springaidifymcpserver.service;
+
+import com.example.springaidifymcpserver.model.dify.DifyWorkflow.Graph.Node.NodeData.NodeClass;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * 问题分类结果缓存
+ * <p>
+ * 以（工作流ID、节点ID、类别列表指纹、规范化后的查询）为键缓存分类结果，使用Caffeine的
+ * W-TinyLFU淘汰策略和写入后过期。配置磁盘路径时额外维护一个追加写的磁盘层，重启后恢复未过期的条目。
+ * 磁盘写入在单独的写线程上批量完成，不阻塞调用方；写线程定期用内存中仍有效的条目重写磁盘文件。
+ * 命中率等统计以cache=classifier发布为Micrometer缓存指标。
+ */
+@Component
+@Slf4j
+public class ClassifierCache implements MeterBinder {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final String SEPARATOR = "\t";
+    /** 写线程积压的磁盘写入上限，超过时丢弃新的写入，只影响重启后的命中率 */
+    private static final int MAX_PENDING_WRITES = 10_000;
+    
+    private final boolean enabled;
+    private final Duration ttl;
+    private final Path diskPath;
+    private final Duration compactionInterval;
+    private final Cache<Key, Entry> cache;
+    /** 按类别列表实例缓存的指纹，工作流重新加载后旧列表被回收 */
+    private final Cache<List<NodeClass>, String> fingerprints = Caffeine.newBuilder().weakKeys().build();
+    private final AtomicInteger pendingWrites = new AtomicInteger();
+    private ScheduledExecutorService diskExecutor;
+    /** 只在写线程上访问 */
+    private BufferedWriter diskWriter;
+    
+    public ClassifierCache(@Value("${mcp.cache.classifier.enabled:true}") boolean enabled,
+                           @Value("${mcp.cache.classifier.max-size:10000}") long maxSize,
+                           @Value("${mcp.cache.classifier.ttl:PT1H}") Duration ttl,
+                           @Value("${mcp.cache.classifier.disk-path:}") String diskPath,
+                           @Value("${mcp.cache.classifier.compaction-interval:PT10M}") Duration compactionInterval) {
+        this.enabled = enabled;
+        this.ttl = ttl;
+        this.diskPath = diskPath == null || diskPath.isEmpty() ? null : Paths.get(diskPath);
+        this.compactionInterval = compactionInterval;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+    }
+    
+    /**
+     * 缓存键，类别列表指纹（类别ID和名称的SHA-256）保证工作流重新加载并修改类别后不会命中旧结果
+     */
+    public record Key(String workflowId, String nodeId, String classesFingerprint, String query) {
+    }
+    
+    private record Entry(String classId, long expiresAt) {
+    }
+    
+    /**
+     * 从磁盘层恢复未过期的条目，压缩磁盘文件并启动写线程
+     */
+    @PostConstruct
+    public void init() {
+        if (!enabled || diskPath == null) {
+            return;
+        }
+        try {
+            if (diskPath.getParent() != null) {
+                Files.createDirectories(diskPath.getParent());
+            }
+            if (Files.exists(diskPath)) {
+                restore();
+            }
+            compactDisk();
+            log.info("分类缓存从磁盘恢复 {} 条记录: {}", cache.estimatedSize(), diskPath);
+        } catch (IOException | RuntimeException e) {
+            log.warn("加载分类缓存磁盘层失败，仅使用内存缓存: {}", e.getMessage());
+            closeDiskWriter();
+            return;
+        }
+        diskExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "classifier-cache-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = compactionInterval.toMillis();
+        diskExecutor.scheduleWithFixedDelay(this::compactQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * 逐行恢复磁盘层的条目，格式不正确的行只跳过该行
+     * <p>
+     * 进程在写入过程中退出时最后一行可能不完整，文件不以换行结尾时忽略最后一行。
+     * 按UTF-8解码时无效的字节被替换，不会导致整个文件无法读取。
+     */
+    private void restore() throws IOException {
+        String content = new String(Files.readAllBytes(diskPath), StandardCharsets.UTF_8);
+        List<String> lines = content.lines().toList();
+        int complete = content.isEmpty() || content.endsWith("\n") ? lines.size() : lines.size() - 1;
+        long now = System.currentTimeMillis();
+        int skipped = lines.size() - complete;
+        for (String line : lines.subList(0, complete)) {
+            String[] parts = line.split(SEPARATOR, 6);
+            long expiresAt;
+            try {
+                expiresAt = parts.length == 6 ? Long.parseLong(parts[0]) : -1;
+            } catch (NumberFormatException e) {
+                expiresAt = -1;
+            }
+            if (expiresAt < 0) {
+                skipped++;
+            } else if (expiresAt > now) {
+                cache.put(new Key(parts[1], parts[2], parts[3], parts[4]), new Entry(parts[5], expiresAt));
+            }
+        }
+        if (skipped > 0) {
+            log.warn("分类缓存磁盘层有 {} 行格式不正确，已跳过: {}", skipped, diskPath);
+        }
+    }
+    
+    /**
+     * 生成缓存键，查询会被规范化（去除首尾空白、合并连续空白、转小写）
+     */
+    public Key key(String workflowId, String nodeId, List<NodeClass> classes, String query) {
+        String normalized = WHITESPACE.matcher(query.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+        return new Key(workflowId, nodeId, fingerprints.get(classes, ClassifierCache::fingerprint), normalized);
+    }
+    
+    private static String fingerprint(List<NodeClass> classes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (NodeClass nodeClass : classes) {
+                digest.update(String.valueOf(nodeClass.getId()).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(String.valueOf(nodeClass.getName()).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest(), 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * 获取缓存的分类ID，未命中时返回null
+     */
+    public String get(Key key) {
+        if (!enabled) {
+            return null;
+        }
+        Entry entry = cache.getIfPresent(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt() <= System.currentTimeMillis()) {
+            cache.invalidate(key);
+            return null;
+        }
+        return entry.classId();
+    }
+    
+    /**
+     * 缓存分类ID，只应缓存能路由到下游节点的有效结果
+     */
+    public void put(Key key, String classId) {
+        if (!enabled) {
+            return;
+        }
+        long expiresAt = System.currentTimeMillis() + ttl.toMillis();
+        cache.put(key, new Entry(classId, expiresAt));
+        if (diskExecutor == null || classId.contains(SEPARATOR) || classId.contains("\n")) {
+            return;
+        }
+        if (pendingWrites.incrementAndGet() > MAX_PENDING_WRITES) {
+            pendingWrites.decrementAndGet();
+            return;
+        }
+        String line = String.join(SEPARATOR,
+                Long.toString(expiresAt), key.workflowId(), key.nodeId(), key.classesFingerprint(), key.query(), classId);
+        try {
+            diskExecutor.execute(() -> appendToDisk(line));
+        } catch (RejectedExecutionException e) {
+            // 关闭期间的写入直接丢弃
+            pendingWrites.decrementAndGet();
+        }
+    }
+    
+    /**
+     * 在写线程上追加一行，积压的写入全部完成后才刷新到磁盘
+     */
+    private void appendToDisk(String line) {
+        try {
+            if (diskWriter != null) {
+                diskWriter.write(line);
+                diskWriter.newLine();
+            }
+            if (pendingWrites.decrementAndGet() == 0 && diskWriter != null) {
+                diskWriter.flush();
+            }
+        } catch (IOException e) {
+            log.warn("写入分类缓存磁盘层失败: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * 用内存中未过期的条目重写磁盘文件，丢弃过期、被淘汰和重复的行
+     */
+    private void compactDisk() throws IOException {
+        closeDiskWriter();
+        Path compacted = diskPath.resolveSibling(diskPath.getFileName() + ".tmp");
+        long now = System.currentTimeMillis();
+        int written = 0;
+        try (BufferedWriter out = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+            for (Map.Entry<Key, Entry> cached : cache.asMap().entrySet()) {
+                Key key = cached.getKey();
+                Entry entry = cached.getValue();
+                if (entry.expiresAt() <= now || entry.classId().contains(SEPARATOR) || entry.classId().contains("\n")) {
+                    continue;
+                }
+                out.write(String.join(SEPARATOR, Long.toString(entry.expiresAt()), key.workflowId(), key.nodeId(),
+                        key.classesFingerprint(), key.query(), entry.classId()));
+                out.newLine();
+                written++;
+            }
+        }
+        Files.move(compacted, diskPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        diskWriter = Files.newBufferedWriter(diskPath, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        log.debug("压缩分类缓存磁盘层: 保留 {} 条记录", written);
+    }
+    
+    private void compactQuietly() {
+        try {
+            compactDisk();
+        } catch (IOException | RuntimeException e) {
+            log.warn("压缩分类缓存磁盘层失败: {}", e.getMessage());
+            if (diskWriter == null) {
+                try {
+                    diskWriter = Files.newBufferedWriter(diskPath, StandardCharsets.UTF_8,
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                } catch (IOException reopen) {
+                    log.warn("无法重新打开分类缓存磁盘层，停止写入: {}", reopen.getMessage());
+                }
+            }
+        }
+    }
+    
+    private void closeDiskWriter() {
+        if (diskWriter != null) {
+            try {
+                diskWriter.close();
+            } catch (IOException e) {
+                log.warn("关闭分类缓存磁盘层失败: {}", e.getMessage());
+            }
+            diskWriter = null;
+        }
+    }
+    
+    /**
+     * 命中/未命中统计
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+    
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "classifier");
+    }
+    
+    /**
+     * 当前缓存条目数（估算值）
+     */
+    public long size() {
+        return cache.estimatedSize();
+    }
+    
+    /**
+     * 清空缓存中的所有条目
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+    
+    /**
+     * 等待积压的磁盘写入完成后关闭磁盘层
+     */
+    @PreDestroy
+    public void close() {
+        if (diskExecutor == null) {
+            return;
+        }
+        diskExecutor.shutdown();
+        try {
+            if (!diskExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                log.warn("分类缓存磁盘层未能在关闭前写完积压的记录");
+                diskExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeDiskWriter();
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.springaidifymcpserver.service;
+
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * 请求的截止时间，从接收请求时开始计算，随执行传递给每一次LLM调用
+ */
+public final class Deadline {
+
+    private static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+    
+    private final long deadlineNanos;
+    
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+    
+    /**
+     * 从现在起经过timeout后到期，timeout为null或不大于0时不限时
+     */
+    public static Deadline after(Duration timeout) {
+        if (timeout == null || timeout.isZero() || timeout.isNegative()) {
+            return NONE;
+        }
+        return new Deadline(System.nanoTime() + timeout.toNanos());
+    }
+    
+    /**
+     * 不限时
+     */
+    public static Deadline none() {
+        return NONE;
+    }
+    
+    public boolean isBounded() {
+        return this != NONE;
+    }
+    
+    public boolean isExpired() {
+        return isBounded() && System.nanoTime() - deadlineNanos >= 0;
+    }
+    
+    /**
+     * 剩余时间，不限时时返回null
+     */
+    public Duration remaining() {
+        return isBounded() ? Duration.ofNanos(Math.max(0, deadlineNanos - System.nanoTime())) : null;
+    }
+    
+    /**
+     * 为发布者加上截止时间，订阅时已到期或在到期前未完成时以DeadlineExceededException结束
+     */
+    public <T> Mono<T> apply(Mono<T> mono, String operation) {
+        if (!isBounded()) {
+            return mono;
+        }
+        return Mono.defer(() -> {
+            if (isExpired()) {
+                return Mono.error(new DeadlineExceededException(operation + "前已超过请求截止时间"));
+            }
+            return mono.timeout(remaining(), Mono.error(() -> new DeadlineExceededException(operation + "超过请求截止时间")));
+        });
+    }
+}
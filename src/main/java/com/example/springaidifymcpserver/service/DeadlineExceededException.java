@@ -0,0 +1,11 @@
+package com.example.springaidifymcpserver.service;
+
+/**
+ * 执行超过了请求的截止时间
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
@@ -1,19 +1,33 @@
 package com.example.springaidifymcpserver.service;
 
+import com.example.springaidifymcpserver.model.dify.CompiledWorkflow;
 import com.example.springaidifymcpserver.model.dify.DifyWorkflow;
+import com.example.springaidifymcpserver.model.dify.WorkflowDefinition;
+import com.example.springaidifymcpserver.model.mcp.McpFunction;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.reactive.function.client.WebClient;
 import org.yaml.snakeyaml.Yaml;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Paths;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Dify工作流服务，提供工作流加载和处理功能
@@ -22,42 +36,196 @@ import java.util.concurrent.ConcurrentHashMap;
 @Slf4j
 public class DifyWorkflowService {
 
+    private static final Map<String, Object> RETURN_SCHEMA = Map.of(
+            "type", "object",
+            "properties", Map.of(
+                    "result", Map.of(
+                            "type", "string",
+                            "description", "处理结果"
+                    )
+            )
+    );
+    
     @Value("${dify.workflow.path:}")
     private String workflowPath;
     
-    @Value("${dify.api.base-url:}")
-    private String difyApiBaseUrl;
-    
-    @Value("${dify.api.api-key:}")
-    private String difyApiKey;
+    @Value("${dify.workflow.watch:true}")
+    private boolean watchEnabled;
     
-    private final WebClient webClient;
-    private final Map<String, DifyWorkflow> workflowCache = new ConcurrentHashMap<>();
+    @Value("${dify.workflow.snapshot.enabled:true}")
+    private boolean snapshotEnabled;
     
-    public DifyWorkflowService() {
-        this.webClient = WebClient.builder()
-                .baseUrl(difyApiBaseUrl)
-                .build();
-    }
+    private volatile Catalog catalog = new Catalog(0, Map.of(), Map.of(), Map.of());
+    private final Map<String, Path> workflowFiles = new ConcurrentHashMap<>();
+    private final Map<Path, FileTime> fileVersions = new ConcurrentHashMap<>();
+    /** 通过addWorkflow添加的工作流没有源文件，保留调用方传入的编辑器模型 */
+    private final Map<String, DifyWorkflow> registeredModels = new ConcurrentHashMap<>();
+    private WorkflowSource workflowSource;
+    private WorkflowSnapshotStore snapshotStore;
+    private WorkflowWatcher watcher;
     
     /**
-     * 初始化并加载工作流
+     * 启动时加载工作流
+     * <p>
+     * dify.workflow.path 可以是单个文件、目录或glob表达式，匹配到的文件在多个核上并行解析和编译，
+     * 全部编译完成后一次性发布为同一版本的工作流集合。MCP函数名冲突时按工作流ID排序保留靠前的一个，
+     * 与文件的处理顺序无关。单个文件加载失败只记录日志，不影响其他工作流。开启监听后文件变更会自动重新加载。
      */
+    @PostConstruct
     public void init() {
-        if (workflowPath != null && !workflowPath.isEmpty()) {
-            log.info("加载工作流文件: {}", workflowPath);
+        if (workflowPath == null || workflowPath.isEmpty()) {
+            log.warn("未配置工作流路径，跳过加载");
+            return;
+        }
+        workflowSource = WorkflowSource.of(workflowPath);
+        snapshotStore = new WorkflowSnapshotStore(snapshotEnabled);
+        long startTime = System.nanoTime();
+        List<Path> files = workflowSource.resolve();
+        if (files.isEmpty()) {
+            log.warn("工作流路径下没有匹配的文件: {}", workflowPath);
+        }
+        List<Loaded> compiled = files.parallelStream()
+                .map(this::compileFile)
+                .filter(Objects::nonNull)
+                .sorted(Comparator.comparing(Loaded::workflowId))
+                .toList();
+        int loaded = publishAll(compiled);
+        log.info("加载工作流 {}/{} 个，耗时 {} ms", loaded, files.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        
+        if (watchEnabled) {
             try {
-                File file = Paths.get(workflowPath).toFile();
-                String workflowId = file.getName();
-                DifyWorkflow workflow = loadWorkflowFromFile(file);
-                workflowCache.put(workflowId, workflow);
-                log.info("成功加载工作流: {}", workflow.getApp().getName());
-            } catch (Exception e) {
-                log.error("加载工作流失败: {}", e.getMessage(), e);
-                throw new RuntimeException("无法加载工作流: " + e.getMessage());
+                watcher = new WorkflowWatcher(workflowSource, this::reloadFile, this::unloadFile);
+                log.info("监听工作流文件变更: {}", workflowSource);
+            } catch (IOException e) {
+                log.warn("无法监听工作流文件变更，热加载未开启: {}", e.getMessage());
             }
-        } else {
-            log.warn("未配置工作流路径，跳过加载");
+        }
+    }
+    
+    @PreDestroy
+    public void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
+    }
+    
+    /**
+     * 某一版本的工作流集合
+     * <p>
+     * 每次添加、重新加载或移除工作流时整体替换，读取方拿到的执行计划、函数定义和函数名索引总是同一版本。
+     *
+     * @param workflows     工作流ID到执行计划
+     * @param functions     工作流ID到MCP函数定义
+     * @param functionIndex MCP函数名到工作流ID
+     */
+    public record Catalog(long version, Map<String, CompiledWorkflow> workflows,
+                          Map<String, McpFunction> functions, Map<String, String> functionIndex) {
+    }
+    
+    /**
+     * 一个编译完成、尚未发布的工作流
+     *
+     * @param file     来源文件，不是从文件加载时为null
+     * @param modified 来源文件的修改时间
+     * @param model    不是从文件加载时调用方传入的编辑器模型
+     */
+    private record Loaded(String workflowId, Path file, FileTime modified, DifyWorkflow model,
+                          CompiledWorkflow compiled, McpFunction function) {
+    }
+    
+    /**
+     * 解析并编译单个工作流文件，失败时记录日志并返回null
+     */
+    private Loaded compileFile(Path file) {
+        String workflowId = workflowSource.workflowId(file);
+        try {
+            FileTime modified = Files.getLastModifiedTime(file);
+            WorkflowDefinition definition = snapshotStore.load(file,
+                    content -> WorkflowDefinition.of(parseWorkflow(content)));
+            CompiledWorkflow compiled = compile(workflowId, definition);
+            return new Loaded(workflowId, file, modified, null, compiled, buildMcpFunction(compiled));
+        } catch (IOException | RuntimeException e) {
+            log.error("加载工作流失败 {}: {}", workflowId, e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * 把启动时编译的全部工作流合并为一个版本发布，MCP函数名冲突的工作流不发布
+     *
+     * @param loaded 按工作流ID排序的编译结果
+     * @return 发布的工作流数
+     */
+    private synchronized int publishAll(List<Loaded> loaded) {
+        Catalog current = catalog;
+        Map<String, CompiledWorkflow> workflows = new HashMap<>(current.workflows());
+        Map<String, McpFunction> functions = new HashMap<>(current.functions());
+        Map<String, String> functionIndex = new HashMap<>(current.functionIndex());
+        int published = 0;
+        for (Loaded workflow : loaded) {
+            String functionName = workflow.compiled().getFunctionName();
+            String owner = functionIndex.get(functionName);
+            if (owner != null && !owner.equals(workflow.workflowId())) {
+                log.error("加载工作流失败 {}: MCP函数名 {} 已被工作流 {} 使用",
+                        workflow.workflowId(), functionName, owner);
+                continue;
+            }
+            put(workflows, functions, functionIndex, workflow);
+            trackSource(workflow);
+            log.info("成功加载工作流: {} ({})", workflow.compiled().getName(), workflow.workflowId());
+            published++;
+        }
+        publish(current, workflows, functions, functionIndex);
+        return published;
+    }
+    
+    /**
+     * 解析、编译并替换单个工作流文件，失败时保留原有版本
+     */
+    private void loadFile(Path file) {
+        Loaded loaded = compileFile(file);
+        if (loaded == null) {
+            return;
+        }
+        try {
+            addCompiled(loaded);
+        } catch (IllegalStateException e) {
+            log.error("加载工作流失败 {}: {}", loaded.workflowId(), e.getMessage());
+            return;
+        }
+        log.info("成功加载工作流: {} ({})", loaded.compiled().getName(), loaded.workflowId());
+    }
+    
+    /**
+     * 文件变更时重新加载，修改时间未变化的文件直接跳过
+     */
+    private void reloadFile(Path file) {
+        try {
+            if (Files.getLastModifiedTime(file).equals(fileVersions.get(file))) {
+                return;
+            }
+        } catch (IOException e) {
+            return;
+        }
+        log.info("检测到工作流文件变更，重新加载: {}", file);
+        loadFile(file);
+    }
+    
+    private void unloadFile(Path file) {
+        fileVersions.remove(file);
+        String workflowId = workflowSource.workflowId(file);
+        workflowFiles.remove(workflowId);
+        if (removeWorkflow(workflowId)) {
+            log.info("工作流文件已删除，移除工作流: {}", workflowId);
+        }
+    }
+    
+    private DifyWorkflow parseWorkflow(byte[] content) {
+        try {
+            return new Yaml().loadAs(new ByteArrayInputStream(content), DifyWorkflow.class);
+        } catch (Exception e) {
+            throw new RuntimeException("无法解析工作流YAML: " + e.getMessage(), e);
         }
     }
     
@@ -77,17 +245,144 @@ public class DifyWorkflowService {
     }
     
     /**
-     * 添加工作流到缓存
+     * 编译工作流并添加到缓存
+     * <p>
+     * 编译完成后整体替换缓存中的旧版本，正在执行的请求继续使用它们开始时取到的版本。
+     * MCP函数名已被其他工作流使用时不添加，抛出IllegalStateException，已有的版本保持不变。
+     * 传入的编辑器模型被保留，getWorkflow返回它。
+     *
+     * @return 编译后的执行计划
+     */
+    public CompiledWorkflow addWorkflow(String workflowId, DifyWorkflow workflow) {
+        CompiledWorkflow compiled = CompiledWorkflow.compile(workflowId, workflow);
+        logDiagnostics(compiled);
+        addCompiled(new Loaded(workflowId, null, null, workflow, compiled, buildMcpFunction(compiled)));
+        return compiled;
+    }
+    
+    private static CompiledWorkflow compile(String workflowId, WorkflowDefinition definition) {
+        CompiledWorkflow compiled = CompiledWorkflow.compile(workflowId, definition);
+        logDiagnostics(compiled);
+        return compiled;
+    }
+    
+    private static void logDiagnostics(CompiledWorkflow compiled) {
+        compiled.getDiagnostics().forEach(problem -> log.warn("工作流 {} 编译警告: {}", compiled.getWorkflowId(), problem));
+    }
+    
+    private synchronized void addCompiled(Loaded loaded) {
+        Catalog current = catalog;
+        String functionName = loaded.compiled().getFunctionName();
+        String owner = current.functionIndex().get(functionName);
+        if (owner != null && !owner.equals(loaded.workflowId())) {
+            throw new IllegalStateException("MCP函数名 " + functionName + " 已被工作流 " + owner + " 使用");
+        }
+        Map<String, CompiledWorkflow> workflows = new HashMap<>(current.workflows());
+        Map<String, McpFunction> functions = new HashMap<>(current.functions());
+        Map<String, String> functionIndex = new HashMap<>(current.functionIndex());
+        put(workflows, functions, functionIndex, loaded);
+        publish(current, workflows, functions, functionIndex);
+        trackSource(loaded);
+    }
+    
+    /**
+     * 记录工作流的来源，同一工作流ID后添加的来源替换先前的来源
+     */
+    private void trackSource(Loaded loaded) {
+        if (loaded.file() != null) {
+            workflowFiles.put(loaded.workflowId(), loaded.file());
+            fileVersions.put(loaded.file(), loaded.modified());
+            registeredModels.remove(loaded.workflowId());
+        } else {
+            workflowFiles.remove(loaded.workflowId());
+            registeredModels.put(loaded.workflowId(), loaded.model());
+        }
+    }
+    
+    private static void put(Map<String, CompiledWorkflow> workflows, Map<String, McpFunction> functions,
+                            Map<String, String> functionIndex, Loaded loaded) {
+        CompiledWorkflow previous = workflows.put(loaded.workflowId(), loaded.compiled());
+        functions.put(loaded.workflowId(), loaded.function());
+        if (previous != null) {
+            functionIndex.remove(previous.getFunctionName(), loaded.workflowId());
+        }
+        functionIndex.put(loaded.compiled().getFunctionName(), loaded.workflowId());
+    }
+    
+    /**
+     * 从缓存中移除工作流
+     */
+    public synchronized boolean removeWorkflow(String workflowId) {
+        Catalog current = catalog;
+        if (!current.workflows().containsKey(workflowId)) {
+            return false;
+        }
+        Map<String, CompiledWorkflow> workflows = new HashMap<>(current.workflows());
+        Map<String, McpFunction> functions = new HashMap<>(current.functions());
+        Map<String, String> functionIndex = new HashMap<>(current.functionIndex());
+        CompiledWorkflow removed = workflows.remove(workflowId);
+        functions.remove(workflowId);
+        registeredModels.remove(workflowId);
+        functionIndex.remove(removed.getFunctionName(), workflowId);
+        publish(current, workflows, functions, functionIndex);
+        return true;
+    }
+    
+    private void publish(Catalog current, Map<String, CompiledWorkflow> workflows,
+                         Map<String, McpFunction> functions, Map<String, String> functionIndex) {
+        catalog = new Catalog(current.version() + 1, Map.copyOf(workflows), Map.copyOf(functions),
+                Map.copyOf(functionIndex));
+    }
+    
+    /**
+     * 当前版本的工作流集合
      */
-    public void addWorkflow(String workflowId, DifyWorkflow workflow) {
-        workflowCache.put(workflowId, workflow);
+    public Catalog getCatalog() {
+        return catalog;
     }
     
     /**
-     * 获取工作流
+     * 获取工作流的完整编辑器模型（例如用于导出）
+     * <p>
+     * 运行时只缓存精简的执行计划，快照也只保存执行模型，从文件加载的工作流按需从源文件重新解析编辑器模型；
+     * 通过addWorkflow添加的工作流返回添加时传入的模型。工作流不存在时返回null。
      */
     public DifyWorkflow getWorkflow(String workflowId) {
-        return workflowCache.get(workflowId);
+        if (!catalog.workflows().containsKey(workflowId)) {
+            return null;
+        }
+        Path file = workflowFiles.get(workflowId);
+        if (file == null) {
+            return registeredModels.get(workflowId);
+        }
+        try {
+            return parseWorkflow(Files.readAllBytes(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException("无法加载工作流: " + workflowId, e);
+        }
+    }
+    
+    /**
+     * 获取编译后的工作流执行计划
+     */
+    public CompiledWorkflow getCompiledWorkflow(String workflowId) {
+        return catalog.workflows().get(workflowId);
+    }
+    
+    /**
+     * 根据MCP函数名或工作流ID查找编译后的工作流
+     */
+    public CompiledWorkflow findByFunctionName(String name) {
+        Catalog current = catalog;
+        String workflowId = current.functionIndex().get(name);
+        return current.workflows().get(workflowId != null ? workflowId : name);
+    }
+    
+    /**
+     * 获取所有编译后的工作流
+     */
+    public Collection<CompiledWorkflow> getCompiledWorkflows() {
+        return catalog.workflows().values();
     }
     
     /**
@@ -96,38 +391,46 @@ public class DifyWorkflowService {
     public Map<String, String> getAllWorkflowIds() {
         Map<String, String> result = new HashMap<>();
         
-        workflowCache.forEach((id, workflow) -> {
-            result.put(id, workflow.getApp().getName());
+        catalog.workflows().forEach((id, workflow) -> {
+            result.put(id, workflow.getName());
         });
         
         return result;
     }
     
     /**
-     * 分析工作流以提取MCP函数
+     * 获取工作流对应的MCP函数定义，函数定义在工作流加载时生成
      */
-    public Map<String, Object> analyzeWorkflowForMcpFunction(String workflowId) {
-        DifyWorkflow workflow = getWorkflow(workflowId);
-        if (workflow == null) {
+    public McpFunction analyzeWorkflowForMcpFunction(String workflowId) {
+        McpFunction function = catalog.functions().get(workflowId);
+        if (function == null) {
             throw new IllegalArgumentException("找不到工作流: " + workflowId);
         }
-        
-        // 根据工作流分析生成函数定义
-        Map<String, Object> function = new HashMap<>();
-        function.put("name", workflow.getApp().getName().replaceAll("\\s+", "_").toLowerCase());
-        function.put("description", workflow.getApp().getDescription());
-        function.put("parameters", workflow.generateInputSchema());
-        
-        Map<String, Object> returnSchema = new HashMap<>();
-        returnSchema.put("type", "object");
-        returnSchema.put("properties", Map.of(
-                "result", Map.of(
-                        "type", "string",
-                        "description", "处理结果"
-                )
-        ));
-        function.put("returnSchema", returnSchema);
-        
         return function;
     }
-}
\ No newline at end of file
+    
+    /**
+     * 所有工作流的MCP函数定义
+     */
+    public Collection<McpFunction> getMcpFunctions() {
+        return catalog.functions().values();
+    }
+    
+    /**
+     * 工作流集合的版本号，每次添加、重新加载或移除工作流时递增
+     */
+    public long getVersion() {
+        return catalog.version();
+    }
+    
+    private static McpFunction buildMcpFunction(CompiledWorkflow workflow) {
+        return McpFunction.builder()
+                .name(workflow.getFunctionName())
+                .description(workflow.getDescription())
+                .parameters(workflow.getInputSchema().getSchema())
+                .returnSchema(RETURN_SCHEMA)
+                .category("dify-workflow")
+                .difyWorkflowId(workflow.getWorkflowId())
+                .build();
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.springaidifymcpserver.service;
+
+import lombok.Builder;
+
+/**
+ * 单次工作流执行的可选参数，未设置的参数使用执行器的默认行为
+ *
+ * @param trace    执行跟踪，为null时不记录
+ * @param deadline 请求的截止时间，为null时使用默认执行超时
+ * @param runId    运行ID（请求的request_id），失败后相同ID的重试从检查点恢复；为null时不记录检查点
+ */
+@Builder
+public record ExecutionOptions(ExecutionTrace trace, Deadline deadline, String runId) {
+
+    private static final ExecutionOptions DEFAULTS = new ExecutionOptions(null, null, null);
+    
+    public static ExecutionOptions defaults() {
+        return DEFAULTS;
+    }
+}
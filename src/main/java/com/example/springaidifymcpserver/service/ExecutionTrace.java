@@ -0,0 +1,70 @@
+package com.example.springaidifymcpserver.service;
+
+import com.example.springaidifymcpserver.model.dify.WorkflowNode;
+import org.springframework.ai.chat.metadata.Usage;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单次请求的执行跟踪，记录每个节点的开始时间、耗时、结果和LLM token用量
+ * <p>
+ * 只在请求显式要求时创建，并发执行的分支可以同时写入。
+ */
+public final class ExecutionTrace {
+
+    private final long startNanos = System.nanoTime();
+    private final Queue<Span> spans = new ConcurrentLinkedQueue<>();
+    private final Map<String, long[]> tokens = new ConcurrentHashMap<>();
+    
+    private record Span(String nodeId, String nodeType, long startNanos, long durationNanos, String outcome) {
+    }
+    
+    void recordNode(WorkflowNode node, long startNanos, long durationNanos, String outcome) {
+        spans.add(new Span(node.getId(), node.getType(), startNanos, durationNanos, outcome));
+    }
+    
+    void recordTokens(String nodeId, Usage usage) {
+        if (usage == null) {
+            return;
+        }
+        long[] counts = tokens.computeIfAbsent(nodeId, k -> new long[2]);
+        synchronized (counts) {
+            counts[0] += usage.getPromptTokens() != null ? usage.getPromptTokens() : 0;
+            counts[1] += usage.getGenerationTokens() != null ? usage.getGenerationTokens() : 0;
+        }
+    }
+    
+    /**
+     * 转换为响应元数据，节点按开始时间排序，时间单位为微秒
+     */
+    public List<Map<String, Object>> toMetadata() {
+        List<Span> sorted = new ArrayList<>(spans);
+        sorted.sort(Comparator.comparingLong(Span::startNanos));
+        List<Map<String, Object>> result = new ArrayList<>(sorted.size());
+        for (Span span : sorted) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("node_id", span.nodeId());
+            entry.put("node_type", span.nodeType());
+            entry.put("start_us", TimeUnit.NANOSECONDS.toMicros(span.startNanos() - startNanos));
+            entry.put("duration_us", TimeUnit.NANOSECONDS.toMicros(span.durationNanos()));
+            entry.put("outcome", span.outcome());
+            long[] counts = tokens.get(span.nodeId());
+            if (counts != null) {
+                synchronized (counts) {
+                    entry.put("prompt_tokens", counts[0]);
+                    entry.put("generation_tokens", counts[1]);
+                }
+            }
+            result.add(entry);
+        }
+        return result;
+    }
+}
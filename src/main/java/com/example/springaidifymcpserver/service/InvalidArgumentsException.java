@@ -0,0 +1,19 @@
+package com.example.springaidifymcpserver.service;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 调用参数不满足工作流输入模式
+ */
+@Getter
+public class InvalidArgumentsException extends IllegalArgumentException {
+
+    private final List<String> errors;
+    
+    public InvalidArgumentsException(List<String> errors) {
+        super("参数校验失败: " + String.join("; ", errors));
+        this.errors = List.copyOf(errors);
+    }
+}
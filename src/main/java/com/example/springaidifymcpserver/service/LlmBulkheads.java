@@ -0,0 +1,169 @@
+package com.example.springaidifymcpserver.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * LLM调用的隔离舱
+ * <p>
+ * 每次LLM调用需要同时占用所属工作流和所用模型两个隔离舱的名额，
+ * 一个工作流或一个模型的上游变慢时不会耗尽其他工作流和模型的并发能力。
+ * 每个隔离舱的并发上限由AdaptiveLimiter按调用结果和相对基线的延迟自适应调整，名额用完的调用立即以OverloadedException失败。
+ * 调用同时受请求截止时间约束：已到期时不再发起调用，调用中到期时取消并以DeadlineExceededException失败。
+ * <p>
+ * 每个隔离舱的上限、在途数、基线延迟和拒绝次数发布为 mcp.bulkhead.limit、mcp.bulkhead.in_flight、
+ * mcp.bulkhead.baseline_latency、mcp.bulkhead.rejected。
+ */
+@Component
+@Slf4j
+public class LlmBulkheads {
+
+    private static final String DEFAULT_MODEL = "default";
+    
+    private final MeterRegistry registry;
+    private final boolean enabled;
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+    private final long slowCallNanos;
+    private final Map<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+    
+    public LlmBulkheads(MeterRegistry registry,
+                        @Value("${mcp.server.bulkhead.enabled:true}") boolean enabled,
+                        @Value("${mcp.server.bulkhead.initial-limit:20}") int initialLimit,
+                        @Value("${mcp.server.bulkhead.min-limit:2}") int minLimit,
+                        @Value("${mcp.server.bulkhead.max-limit:200}") int maxLimit,
+                        @Value("${mcp.server.bulkhead.backoff-ratio:0.9}") double backoffRatio,
+                        @Value("${mcp.server.bulkhead.latency-tolerance:2.0}") double latencyTolerance,
+                        @Value("${mcp.server.bulkhead.slow-call-threshold:PT30S}") Duration slowCallThreshold) {
+        this.registry = registry;
+        this.enabled = enabled;
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+        this.slowCallNanos = slowCallThreshold.toNanos();
+    }
+    
+    private record Bulkhead(String name, AdaptiveLimiter limiter, Counter rejected) {
+    }
+    
+    /**
+     * 在工作流和模型的隔离舱内执行一次LLM调用
+     *
+     * @param model 节点的模型配置，按provider和name区分模型
+     */
+    public <T> Mono<T> call(String workflowId, Map<String, Object> model, Deadline deadline, Supplier<Mono<T>> call) {
+        Mono<T> guarded = Mono.defer(() -> {
+            if (!enabled) {
+                return call.get();
+            }
+            Bulkhead workflow = bulkhead("workflow", workflowId);
+            Bulkhead modelBulkhead = bulkhead("model", modelKey(model));
+            if (!workflow.limiter().tryAcquire()) {
+                return reject(workflow);
+            }
+            if (!modelBulkhead.limiter().tryAcquire()) {
+                workflow.limiter().releaseIgnored();
+                return reject(modelBulkhead);
+            }
+            
+            long startNanos = System.nanoTime();
+            AtomicBoolean released = new AtomicBoolean();
+            return call.get()
+                    .doOnSuccess(value -> {
+                        if (released.compareAndSet(false, true)) {
+                            long rttNanos = System.nanoTime() - startNanos;
+                            workflow.limiter().onSuccess(rttNanos);
+                            modelBulkhead.limiter().onSuccess(rttNanos);
+                        }
+                    })
+                    .doOnError(e -> {
+                        if (released.compareAndSet(false, true)) {
+                            workflow.limiter().onDropped();
+                            modelBulkhead.limiter().onDropped();
+                        }
+                    })
+                    .doOnCancel(() -> {
+                        if (!released.compareAndSet(false, true)) {
+                            return;
+                        }
+                        // 截止时间到期被取消说明上游已经跟不上，与失败一样收缩上限；调用方主动取消则只归还名额
+                        if (deadline.isExpired()) {
+                            workflow.limiter().onDropped();
+                            modelBulkhead.limiter().onDropped();
+                        } else {
+                            workflow.limiter().releaseIgnored();
+                            modelBulkhead.limiter().releaseIgnored();
+                        }
+                    });
+        });
+        return deadline.apply(guarded, "LLM调用");
+    }
+    
+    private <T> Mono<T> reject(Bulkhead bulkhead) {
+        bulkhead.rejected().increment();
+        int limit = bulkhead.limiter().getLimit();
+        log.debug("隔离舱 {} 已满（上限 {}），拒绝LLM调用", bulkhead.name(), limit);
+        return Mono.error(new OverloadedException(bulkhead.name(), limit));
+    }
+    
+    private Bulkhead bulkhead(String type, String key) {
+        return bulkheads.computeIfAbsent(type + ":" + key, name -> {
+            AdaptiveLimiter limiter = new AdaptiveLimiter(initialLimit, minLimit, maxLimit, backoffRatio,
+                    latencyTolerance, slowCallNanos);
+            Gauge.builder("mcp.bulkhead.limit", limiter, AdaptiveLimiter::getLimit)
+                    .description("隔离舱当前的并发上限")
+                    .tag("type", type)
+                    .tag("name", key)
+                    .register(registry);
+            Gauge.builder("mcp.bulkhead.in_flight", limiter, AdaptiveLimiter::getInFlight)
+                    .description("隔离舱内正在进行的调用数")
+                    .tag("type", type)
+                    .tag("name", key)
+                    .register(registry);
+            Gauge.builder("mcp.bulkhead.baseline_latency", limiter, l -> l.getBaselineNanos() / 1e9)
+                    .description("隔离舱内调用的基线延迟")
+                    .baseUnit("seconds")
+                    .tag("type", type)
+                    .tag("name", key)
+                    .register(registry);
+            Counter rejected = Counter.builder("mcp.bulkhead.rejected")
+                    .description("隔离舱拒绝的调用数")
+                    .tag("type", type)
+                    .tag("name", key)
+                    .register(registry);
+            return new Bulkhead(name, limiter, rejected);
+        });
+    }
+    
+    private static String modelKey(Map<String, Object> model) {
+        if (model == null || model.get("name") == null) {
+            return DEFAULT_MODEL;
+        }
+        Object provider = model.get("provider");
+        return provider != null ? provider + "/" + model.get("name") : model.get("name").toString();
+    }
+    
+    /**
+     * 隔离舱当前的并发上限，隔离舱尚未创建时返回-1
+     */
+    public int getLimit(String bulkhead) {
+        Bulkhead existing = bulkheads.get(bulkhead);
+        return existing != null ? existing.limiter().getLimit() : -1;
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.springaidifymcpserver.service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * LLM节点响应缓存
+ * <p>
+ * 以最终渲染的Prompt和节点模型配置的SHA-256指纹为键，容量按字节数限制。只对显式开启的节点生效，
+ * 并且默认只缓存temperature为0的确定性调用。并发的相同未命中请求会合并为一次上游调用，
+ * 这次调用不属于任何一个调用方：调用方超时或取消只结束自己的等待，生成中的token会转发给每个流式调用方。
+ */
+@Component
+public class LlmResponseCache implements MeterBinder {
+
+    private static final String ALL_NODES = "*";
+    
+    private final boolean enabled;
+    private final boolean force;
+    private final Set<String> nodes;
+    private final AsyncCache<String, String> cache;
+    /** 正在加载的键已生成的token，供合并进来的流式调用方从头重放 */
+    private final Map<String, Sinks.Many<String>> loading = new ConcurrentHashMap<>();
+    
+    public LlmResponseCache(@Value("${mcp.cache.llm.enabled:false}") boolean enabled,
+                            @Value("${mcp.cache.llm.nodes:}") Set<String> nodes,
+                            @Value("${mcp.cache.llm.force:false}") boolean force,
+                            @Value("${mcp.cache.llm.max-bytes:67108864}") long maxBytes,
+                            @Value("${mcp.cache.llm.ttl:PT10M}") Duration ttl) {
+        this.enabled = enabled;
+        this.force = force;
+        this.nodes = nodes;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String key, String value) -> (key.length() + value.length()) * 2)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .buildAsync();
+    }
+    
+    /**
+     * 节点是否开启缓存：节点需在配置中显式列出（或配置为*），且temperature为0或配置了强制缓存
+     */
+    public boolean isCacheable(String nodeId, Map<String, Object> model) {
+        if (!enabled || !(nodes.contains(nodeId) || nodes.contains(ALL_NODES))) {
+            return false;
+        }
+        return force || isDeterministic(model);
+    }
+    
+    private static boolean isDeterministic(Map<String, Object> model) {
+        if (model == null) {
+            return false;
+        }
+        Object params = model.getOrDefault("completion_params", model.get("completionParams"));
+        if (!(params instanceof Map<?, ?> completionParams)) {
+            return false;
+        }
+        return completionParams.get("temperature") instanceof Number temperature && temperature.doubleValue() == 0.0;
+    }
+    
+    /**
+     * 计算Prompt和模型配置的稳定指纹
+     */
+    public String fingerprint(Prompt prompt, Map<String, Object> model) {
+        MessageDigest digest = sha256();
+        for (Message message : prompt.getInstructions()) {
+            update(digest, String.valueOf(message.getMessageType()));
+            update(digest, message.getContent());
+        }
+        update(digest, String.valueOf(canonicalize(model)));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+    
+    private static void update(MessageDigest digest, String value) {
+        digest.update((value != null ? value : "").getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+    
+    /**
+     * 按键排序的嵌套结构，保证相同配置的toString结果一致
+     */
+    private static Object canonicalize(Object value) {
+        if (value instanceof Map<?, ?> map) {
+            TreeMap<String, Object> sorted = new TreeMap<>();
+            map.forEach((k, v) -> sorted.put(String.valueOf(k), canonicalize(v)));
+            return sorted;
+        }
+        if (value instanceof List<?> list) {
+            return list.stream().map(LlmResponseCache::canonicalize).toList();
+        }
+        return value;
+    }
+    
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * 获取缓存的响应，未命中时调用loader；同一键的并发请求共享同一次调用，调用失败不会被缓存
+     * <p>
+     * loader在第一个未命中的请求上订阅，之后独立运行到结束，不受任何调用方取消的影响，
+     * 因此loader应自带超时，不应使用某个调用方的截止时间。
+     *
+     * @param loader 发起上游调用，参数是生成token时的回调
+     * @param chunks 调用方的token接收者，为null时不转发。加载中时重放已生成的token并继续转发，
+     *               命中缓存或loader没有逐token输出时整段转发结果
+     */
+    public Mono<String> get(String key, Function<Consumer<String>, Mono<String>> loader, Consumer<String> chunks) {
+        return Mono.defer(() -> {
+            CompletableFuture<String> future = cache.get(key, (k, executor) -> load(k, loader));
+            Mono<String> result = Mono.fromFuture(future, true);
+            if (chunks == null) {
+                return result;
+            }
+            Sinks.Many<String> tokens = loading.get(key);
+            if (tokens == null) {
+                return result.doOnNext(chunks);
+            }
+            AtomicBoolean streamed = new AtomicBoolean();
+            return tokens.asFlux()
+                    .doOnNext(token -> {
+                        streamed.set(true);
+                        chunks.accept(token);
+                    })
+                    .then(result)
+                    .doOnNext(text -> {
+                        if (!streamed.get()) {
+                            chunks.accept(text);
+                        }
+                    });
+        });
+    }
+    
+    private CompletableFuture<String> load(String key, Function<Consumer<String>, Mono<String>> loader) {
+        Sinks.Many<String> tokens = Sinks.many().replay().all();
+        loading.put(key, tokens);
+        return loader.apply(tokens::tryEmitNext)
+                .doFinally(signal -> {
+                    loading.remove(key, tokens);
+                    tokens.tryEmitComplete();
+                })
+                .toFuture();
+    }
+    
+    /**
+     * 命中/未命中统计
+     */
+    public CacheStats stats() {
+        return cache.synchronous().stats();
+    }
+    
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache.synchronous(), "llm-response");
+    }
+    
+    /**
+     * 当前缓存占用的近似字节数
+     */
+    public long weightedSize() {
+        return cache.synchronous().policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L))
+                .orElse(0L);
+    }
+}
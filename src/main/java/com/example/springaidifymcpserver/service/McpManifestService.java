@@ -0,0 +1,120 @@
+package com.example.springaidifymcpserver.service;
+
+import com.example.springaidifymcpserver.model.mcp.McpFunction;
+import com.example.springaidifymcpserver.model.mcp.McpManifest;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * MCP清单服务，将已加载的工作流描述为MCP函数
+ * <p>
+ * 清单连同其JSON字节、gzip压缩后的字节和ETag一起缓存，只在工作流集合的版本号变化
+ * （添加、重新加载或移除工作流）后的第一次请求时重新生成。
+ */
+@Service
+@Slf4j
+public class McpManifestService {
+
+    private final DifyWorkflowService workflowService;
+    private final ObjectMapper objectMapper;
+    private final McpManifest.ServerInfo serverInfo;
+    private volatile Manifest cached;
+    
+    public McpManifestService(DifyWorkflowService workflowService,
+                              ObjectMapper objectMapper,
+                              @Value("${mcp.server.id:dify-mcp-server}") String id,
+                              @Value("${mcp.server.name:Dify MCP Server}") String name,
+                              @Value("${mcp.server.description:}") String description,
+                              @Value("${mcp.server.version:1.0.0}") String version) {
+        this.workflowService = workflowService;
+        this.objectMapper = objectMapper;
+        this.serverInfo = McpManifest.ServerInfo.builder()
+                .id(id)
+                .name(name)
+                .description(description)
+                .version(version)
+                .auth(McpManifest.ServerInfo.Auth.builder()
+                        .type("none")
+                        .build())
+                .build();
+    }
+    
+    /**
+     * 预先序列化的清单
+     *
+     * @param json 清单的JSON字节
+     * @param gzip 压缩后的JSON字节
+     * @param etag 基于JSON内容的弱ETag，压缩与否不影响取值
+     */
+    public record Manifest(McpManifest manifest, byte[] json, byte[] gzip, String etag, long version) {
+    }
+    
+    /**
+     * 获取当前版本的清单，函数按名称排序
+     */
+    public Manifest getManifest() {
+        Manifest manifest = cached;
+        long version = workflowService.getVersion();
+        if (manifest != null && manifest.version() == version) {
+            return manifest;
+        }
+        synchronized (this) {
+            if (cached == null || cached.version() != workflowService.getVersion()) {
+                cached = build();
+            }
+            return cached;
+        }
+    }
+    
+    private Manifest build() {
+        // 版本号和函数取自同一个工作流集合快照
+        DifyWorkflowService.Catalog catalog = workflowService.getCatalog();
+        long version = catalog.version();
+        List<McpFunction> functions = catalog.functions().values().stream()
+                .sorted(Comparator.comparing(McpFunction::getName))
+                .toList();
+        McpManifest manifest = McpManifest.builder()
+                .server(serverInfo)
+                .functions(functions)
+                .build();
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(manifest);
+            String etag = "W/\"" + HexFormat.of().formatHex(sha256(json), 0, 16) + "\"";
+            log.debug("重新生成MCP清单: {} 个函数, {} 字节, ETag {}", functions.size(), json.length, etag);
+            return new Manifest(manifest, json, gzip(json), etag, version);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("无法序列化MCP清单: " + e.getMessage(), e);
+        }
+    }
+    
+    private static byte[] gzip(byte[] content) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+    
+    private static byte[] sha256(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.springaidifymcpserver.service;
+
+import lombok.Getter;
+
+/**
+ * 隔离舱的并发数已达上限，请求被直接拒绝而不是排队等待
+ */
+@Getter
+public class OverloadedException extends RuntimeException {
+
+    /** 拒绝请求的隔离舱，如 model:openai/gpt-4 */
+    private final String bulkhead;
+    /** 拒绝时的并发上限 */
+    private final int limit;
+    
+    public OverloadedException(String bulkhead, int limit) {
+        super("服务繁忙，" + bulkhead + " 的并发调用已达上限 " + limit);
+        this.bulkhead = bulkhead;
+        this.limit = limit;
+    }
+}
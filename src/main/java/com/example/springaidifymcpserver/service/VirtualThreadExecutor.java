@@ -0,0 +1,162 @@
+package com.example.springaidifymcpserver.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * 虚拟线程执行模式，仅在Java 21及以上版本且显式开启时生效
+ * <p>
+ * 开启后LLM调用使用阻塞的ChatClient运行在虚拟线程上，同时执行的工作流数由信号量控制，
+ * 而不是由固定大小的平台线程池决定。许可在虚拟线程上等待，不占用事件循环线程。
+ * 项目仍以Java 17编译，虚拟线程执行器通过反射创建。
+ * <p>
+ * 并发上限在两种模式下都生效：虚拟线程模式不可用时许可以非阻塞方式获取，
+ * 许可耗尽时工作流按到达顺序排队，归还许可时唤醒队首的工作流。
+ */
+@Component
+@Slf4j
+public class VirtualThreadExecutor {
+
+    private final ExecutorService executor;
+    private final Scheduler scheduler;
+    private final Semaphore permits;
+    /** 非虚拟线程模式下等待许可的工作流 */
+    private final Queue<MonoSink<Permit>> waiters = new ConcurrentLinkedQueue<>();
+    
+    public VirtualThreadExecutor(@Value("${mcp.server.virtual-threads.enabled:false}") boolean enabled,
+                                 @Value("${mcp.server.virtual-threads.max-concurrency:1000}") int maxConcurrency) {
+        this.executor = enabled ? createVirtualThreadExecutor() : null;
+        this.scheduler = executor != null ? Schedulers.fromExecutorService(executor, "mcp-virtual") : null;
+        this.permits = new Semaphore(Math.max(1, maxConcurrency), true);
+        if (executor != null) {
+            log.info("已启用虚拟线程执行模式，最大并发工作流数: {}", maxConcurrency);
+        } else {
+            log.info("最大并发工作流数: {}", maxConcurrency);
+        }
+    }
+    
+    private static ExecutorService createVirtualThreadExecutor() {
+        if (Runtime.version().feature() < 21) {
+            log.warn("虚拟线程需要Java 21及以上版本，当前版本: {}，回退到响应式执行", Runtime.version());
+            return null;
+        }
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.warn("无法创建虚拟线程执行器，回退到响应式执行: {}", e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * 虚拟线程模式是否可用
+     */
+    public boolean isEnabled() {
+        return executor != null;
+    }
+    
+    /**
+     * 在虚拟线程上执行阻塞调用
+     */
+    public <T> Mono<T> call(Callable<T> task) {
+        return Mono.fromCallable(task).subscribeOn(scheduler);
+    }
+    
+    /**
+     * 占用一个并发许可执行一次工作流，许可耗尽时排队等待
+     * <p>
+     * 虚拟线程模式下在虚拟线程上阻塞等待，否则不阻塞任何线程，在等待队列中排队。
+     * 工作流结束、失败或被取消时归还许可，排队中被取消的工作流离开队列。
+     */
+    public <T> Mono<T> execute(Supplier<Mono<T>> task) {
+        Mono<Permit> acquire = (isEnabled() ? acquireBlocking() : acquireAsync())
+                .doOnDiscard(Permit.class, Permit::release);
+        return Mono.usingWhen(acquire,
+                permit -> Mono.defer(task),
+                Permit::releaseAsync,
+                (permit, error) -> permit.releaseAsync(),
+                Permit::releaseAsync);
+    }
+    
+    private Mono<Permit> acquireBlocking() {
+        return Mono.fromCallable(() -> {
+                    permits.acquire();
+                    return new Permit();
+                })
+                .subscribeOn(scheduler);
+    }
+    
+    private Mono<Permit> acquireAsync() {
+        return Mono.create(sink -> {
+            waiters.add(sink);
+            sink.onCancel(() -> waiters.remove(sink));
+            drainWaiters();
+        });
+    }
+    
+    /**
+     * 按到达顺序把空闲的许可交给等待中的工作流
+     * <p>
+     * 取到许可后队列可能已被其他线程取空，此时归还许可并重新检查队列，
+     * 保证入队和归还许可并发发生时不会有工作流滞留在队列中。交给已取消工作流的许可经丢弃钩子归还。
+     */
+    private void drainWaiters() {
+        while (!waiters.isEmpty() && permits.tryAcquire()) {
+            MonoSink<Permit> waiter = waiters.poll();
+            if (waiter == null) {
+                permits.release();
+            } else {
+                waiter.success(new Permit());
+            }
+        }
+    }
+    
+    /**
+     * 已获取的许可，取消和完成可能同时发生，只归还一次
+     */
+    private final class Permit {
+        
+        private final AtomicBoolean released = new AtomicBoolean();
+        
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                permits.release();
+                drainWaiters();
+            }
+        }
+        
+        Mono<Void> releaseAsync() {
+            return Mono.fromRunnable(this::release);
+        }
+    }
+    
+    /**
+     * 当前可用的并发许可数
+     */
+    public int availablePermits() {
+        return permits.availablePermits();
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            scheduler.dispose();
+            executor.shutdown();
+        }
+    }
+}
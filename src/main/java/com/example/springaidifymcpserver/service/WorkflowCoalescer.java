@@ -0,0 +1,196 @@
+package com.example.springaidifymcpserver.service;
+
+import com.example.springaidifymcpserver.model.dify.CompiledWorkflow;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 相同工作流调用的合并执行（single-flight）
+ * <p>
+ * 以工作流ID和规范化后的参数（Map按键排序）为键，同一键的执行尚未完成时，后到的相同请求订阅同一次执行，
+ * 不再重复调度工作流图，执行结束后键即移除，结果不做缓存。
+ * <p>
+ * 共享执行按订阅的调用方计数：个别调用方超时或取消只退出自己的订阅，最后一个调用方退出时取消共享执行并移除键，
+ * 之后到达的相同请求重新发起执行。共享执行本身使用执行器的默认执行超时，每个调用方在其上应用自己的截止时间，
+ * 因此共享执行实际持续到仍在等待的调用方中最晚的截止时间，且不超过默认执行超时。
+ * <p>
+ * 只对配置中列出的工作流生效（*表示全部）。带会话ID的请求以及配置了会话记忆的工作流，
+ * 输出依赖各自的会话历史，不参与合并。
+ */
+@Component
+@Slf4j
+public class WorkflowCoalescer implements MeterBinder {
+
+    private static final String ALL_WORKFLOWS = "*";
+    
+    private final boolean enabled;
+    private final Set<String> workflows;
+    private final Map<Key, Flight> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+    
+    public WorkflowCoalescer(@Value("${mcp.server.coalescing.enabled:true}") boolean enabled,
+                             @Value("${mcp.server.coalescing.workflows:*}") Set<String> workflows) {
+        this.enabled = enabled;
+        this.workflows = workflows;
+    }
+    
+    private record Key(String workflowId, Object arguments) {
+    }
+    
+    /**
+     * 请求能否与其他相同请求合并执行
+     *
+     * @param sessionId 请求的会话ID，带会话的请求不合并
+     */
+    public boolean isCoalescable(CompiledWorkflow workflow, String sessionId) {
+        if (!enabled || sessionId != null || workflow.isUsesMemory()) {
+            return false;
+        }
+        return workflows.contains(ALL_WORKFLOWS) || workflows.contains(workflow.getWorkflowId());
+    }
+    
+    /**
+     * 执行工作流，同一工作流和参数已有执行在进行中时共享其结果
+     *
+     * @param execution 发起一次新的执行
+     */
+    public Mono<Map<String, Object>> execute(CompiledWorkflow workflow, Map<String, Object> arguments, Deadline deadline,
+                                             Supplier<Mono<Map<String, Object>>> execution) {
+        return Mono.defer(() -> {
+            Key key = new Key(workflow.getWorkflowId(), canonicalize(arguments));
+            Flight[] created = new Flight[1];
+            Flight flight = inFlight.compute(key, (k, existing) -> {
+                if (existing != null && existing.attach()) {
+                    return existing;
+                }
+                created[0] = new Flight(k);
+                created[0].attach();
+                return created[0];
+            });
+            if (created[0] != null) {
+                flight.start(execution);
+            } else {
+                coalesced.increment();
+                if (log.isDebugEnabled()) {
+                    log.debug("合并到进行中的工作流执行: {}", workflow.getWorkflowId());
+                }
+            }
+            // 调用方取消（包括自己的截止时间到期）只退出自己的订阅，最后一个退出时才取消共享执行
+            Mono<Map<String, Object>> result = flight.result.asMono().doOnCancel(flight::detach);
+            return deadline != null ? deadline.apply(result, "工作流执行") : result;
+        });
+    }
+    
+    /**
+     * 一次共享执行及其调用方计数
+     */
+    private final class Flight {
+        
+        private final Key key;
+        private final Sinks.One<Map<String, Object>> result = Sinks.one();
+        private final Disposable.Swap execution = Disposables.swap();
+        private int subscribers;
+        private boolean closed;
+        
+        Flight(Key key) {
+            this.key = key;
+        }
+        
+        /**
+         * 加入共享执行，执行已结束或已被取消时返回false
+         */
+        synchronized boolean attach() {
+            if (closed) {
+                return false;
+            }
+            subscribers++;
+            return true;
+        }
+        
+        void detach() {
+            synchronized (this) {
+                if (closed || --subscribers > 0) {
+                    return;
+                }
+                closed = true;
+            }
+            inFlight.remove(key, this);
+            execution.dispose();
+        }
+        
+        void start(Supplier<Mono<Map<String, Object>>> supplier) {
+            execution.update(Mono.defer(supplier).subscribe(
+                    value -> {
+                        close();
+                        result.tryEmitValue(value);
+                    },
+                    error -> {
+                        close();
+                        result.tryEmitError(error);
+                    },
+                    () -> {
+                        close();
+                        result.tryEmitEmpty();
+                    }));
+        }
+        
+        private void close() {
+            synchronized (this) {
+                closed = true;
+            }
+            inFlight.remove(key, this);
+        }
+    }
+    
+    /**
+     * 按键排序的嵌套结构，键顺序不同的相同参数得到相等的键
+     */
+    private static Object canonicalize(Object value) {
+        if (value instanceof Map<?, ?> map) {
+            TreeMap<String, Object> sorted = new TreeMap<>();
+            map.forEach((k, v) -> sorted.put(String.valueOf(k), canonicalize(v)));
+            return sorted;
+        }
+        if (value instanceof List<?> list) {
+            List<Object> copy = new ArrayList<>(list.size());
+            list.forEach(item -> copy.add(canonicalize(item)));
+            return copy;
+        }
+        return value;
+    }
+    
+    /**
+     * 合并到其他执行的请求数
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+    
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("mcp.workflow.coalesced", coalesced, LongAdder::doubleValue)
+                .description("合并到进行中的相同执行的请求数")
+                .register(registry);
+        Gauge.builder("mcp.workflow.coalescing.in_flight", inFlight, Map::size)
+                .description("可被合并的进行中执行数")
+                .register(registry);
+    }
+}
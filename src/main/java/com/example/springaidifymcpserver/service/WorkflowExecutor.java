@@ -1,129 +1,368 @@
 package com.example.springaidifymcpserver.service;
 
+import com.example.springaidifymcpserver.model.dify.CompiledWorkflow;
 import com.example.springaidifymcpserver.model.dify.DifyWorkflow;
+import com.example.springaidifymcpserver.model.dify.ExecutionContext;
+import com.example.springaidifymcpserver.model.dify.PromptTemplate;
+import com.example.springaidifymcpserver.model.dify.WorkflowEdge;
+import com.example.springaidifymcpserver.model.dify.WorkflowNode;
+import com.example.springaidifymcpserver.service.remote.DifyApiClient;
+import com.example.springaidifymcpserver.service.retrieval.RetrievalEngine;
+import com.example.springaidifymcpserver.service.retrieval.RetrievalQuery;
+import com.example.springaidifymcpserver.service.retrieval.RetrievedChunk;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.ChatClient;
 import org.springframework.ai.chat.ChatResponse;
+import org.springframework.ai.chat.StreamingChatClient;
+import org.springframework.ai.chat.metadata.Usage;
 import org.springframework.ai.chat.messages.SystemMessage;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * 工作流执行器，负责执行Dify工作流
+ * <p>
+ * 按编译后的DAG以非阻塞方式调度节点，互不依赖的分支并发执行，有多条入边的节点等待上游全部完成后再执行。
+ * 跟踪、截止时间和运行ID等单次执行的参数通过ExecutionOptions传入。
  */
 @Service
 @Slf4j
 public class WorkflowExecutor {
 
     private final ChatClient chatClient;
+    private final StreamingChatClient streamingChatClient;
+    private final VirtualThreadExecutor virtualThreads;
+    private final ClassifierCache classifierCache;
+    private final LlmResponseCache llmResponseCache;
+    private final RetrievalEngine retrievalEngine;
+    private final WorkflowMetrics metrics;
+    private final LlmBulkheads bulkheads;
+    private final DifyApiClient difyApi;
+    private final CheckpointStore checkpoints;
+    private final int maxParallelism;
+    private final Duration defaultTimeout;
     
     @Autowired
-    public WorkflowExecutor(ChatClient chatClient) {
+    public WorkflowExecutor(ChatClient chatClient,
+                            StreamingChatClient streamingChatClient,
+                            VirtualThreadExecutor virtualThreads,
+                            ClassifierCache classifierCache,
+                            LlmResponseCache llmResponseCache,
+                            RetrievalEngine retrievalEngine,
+                            WorkflowMetrics metrics,
+                            LlmBulkheads bulkheads,
+                            DifyApiClient difyApi,
+                            CheckpointStore checkpoints,
+                            @Value("${mcp.server.execution.max-parallelism:4}") int maxParallelism,
+                            @Value("${mcp.server.execution.timeout:PT2M}") Duration defaultTimeout) {
         this.chatClient = chatClient;
+        this.streamingChatClient = streamingChatClient;
+        this.virtualThreads = virtualThreads;
+        this.classifierCache = classifierCache;
+        this.llmResponseCache = llmResponseCache;
+        this.retrievalEngine = retrievalEngine;
+        this.metrics = metrics;
+        this.bulkheads = bulkheads;
+        this.difyApi = difyApi;
+        this.checkpoints = checkpoints;
+        this.maxParallelism = maxParallelism;
+        this.defaultTimeout = defaultTimeout;
     }
     
     /**
-     * 执行工作流
+     * 执行工作流（阻塞），不能在事件循环线程上调用
      */
-    public Map<String, Object> executeWorkflow(DifyWorkflow workflow, Map<String, Object> inputs) {
-        log.info("开始执行工作流: {}", workflow.getApp().getName());
-        
-        // 获取用户查询
-        String query = (String) inputs.getOrDefault("query", "");
-        if (query.isEmpty()) {
-            throw new IllegalArgumentException("输入参数'query'不能为空");
+    public Map<String, Object> executeWorkflow(CompiledWorkflow workflow, Map<String, Object> inputs) {
+        return executeWorkflowReactive(workflow, inputs).block();
+    }
+    
+    /**
+     * 以非阻塞方式执行工作流
+     */
+    public Mono<Map<String, Object>> executeWorkflowReactive(CompiledWorkflow workflow, Map<String, Object> inputs) {
+        return executeWorkflowReactive(workflow, inputs, ExecutionOptions.defaults());
+    }
+    
+    /**
+     * 以非阻塞方式执行工作流，执行超过截止时间时以DeadlineExceededException失败
+     */
+    public Mono<Map<String, Object>> executeWorkflowReactive(CompiledWorkflow workflow, Map<String, Object> inputs,
+                                                             ExecutionOptions options) {
+        return execute(workflow, inputs, null, options);
+    }
+    
+    /**
+     * 以流式方式执行工作流，逐段发出回答内容
+     * <p>
+     * 直接作为回答的LLM输出按token发出，其余回答节点（包括从检查点恢复的回答）在执行完成时整段发出。
+     */
+    public Flux<String> streamWorkflow(CompiledWorkflow workflow, Map<String, Object> inputs) {
+        return streamWorkflow(workflow, inputs, ExecutionOptions.defaults());
+    }
+    
+    /**
+     * 以流式方式执行工作流，执行超过截止时间时以DeadlineExceededException结束
+     */
+    public Flux<String> streamWorkflow(CompiledWorkflow workflow, Map<String, Object> inputs, ExecutionOptions options) {
+        return Flux.create(sink -> {
+            Disposable execution = execute(workflow, inputs, sink::next, options)
+                    .subscribe(result -> sink.complete(), sink::error);
+            sink.onDispose(execution);
+        });
+    }
+    
+    /**
+     * @param chunks 回答片段的接收者，非流式执行时为null
+     */
+    private Mono<Map<String, Object>> execute(CompiledWorkflow workflow, Map<String, Object> inputs,
+                                              Consumer<String> chunks, ExecutionOptions options) {
+        ExecutionTrace trace = options.trace();
+        Deadline deadline = options.deadline() != null ? options.deadline() : Deadline.after(defaultTimeout);
+        // 先占用并发许可，排队时间计入执行耗时和截止时间
+        return timed(() -> deadline.apply(virtualThreads.execute(() -> {
+            log.debug("开始执行工作流: {}", workflow.getName());
+            
+            // 按预编译的输入模式校验参数，无效调用在任何LLM调用之前失败
+            List<String> errors = workflow.getInputSchema().validate(inputs);
+            if (!errors.isEmpty()) {
+                return Mono.error(new InvalidArgumentsException(errors));
+            }
+            if (difyApi.isRemote(workflow)) {
+                return difyApi.run(workflow, inputs, chunks).map(this::toResponse);
+            }
+            String query = (String) inputs.get("query");
+            
+            // 准备按槽位存取的上下文，并发分支可以安全地同时写入
+            ExecutionContext context = workflow.newContext();
+            context.set(CompiledWorkflow.SYS_QUERY_SLOT, query);
+            
+            // 获取预先计算的起始节点
+            WorkflowNode startNode = workflow.getStartNode();
+            if (startNode == null) {
+                return Mono.error(new IllegalStateException("无法找到工作流起始节点"));
+            }
+            
+            // 起始节点声明的变量可以被模板以 {{#startId.var#}} 引用
+            for (CompiledWorkflow.StartVariable variable : workflow.getStartVariables()) {
+                context.set(variable.slot(), inputs.get(variable.name()));
+            }
+            
+            // 调度执行工作流，之前的尝试中已完成的节点从检查点恢复
+            CheckpointStore.Run checkpoint = checkpoints.open(options.runId(), workflow, inputs);
+            WorkflowRun run = new WorkflowRun(workflow, maxParallelism, node -> {
+                CheckpointStore.NodeCheckpoint completed = checkpoint != null ? checkpoint.get(node.getId()) : null;
+                if (completed != null) {
+                    return Mono.just(restoreNode(workflow, node, context, chunks, trace, completed));
+                }
+                Mono<Collection<String>> processed = timed(
+                        () -> processNode(workflow, node, context, chunks, trace, deadline),
+                        (outcome, startNanos, nanos) -> {
+                            metrics.recordNode(workflow.getWorkflowId(), node, outcome, nanos);
+                            if (trace != null) {
+                                trace.recordNode(node, startNanos, nanos, outcome);
+                            }
+                        });
+                return checkpoint == null ? processed : processed.doOnNext(targets -> checkpoint.record(node.getId(),
+                        context.getString(workflow.getOutputSlot(node.getId())),
+                        context.getString(workflow.getAnswerSlot(node.getId())),
+                        targets));
+            });
+            return run.execute(startNode.getId())
+                    .then(Mono.fromSupplier(() -> toResponse(collectAnswer(workflow, context))))
+                    .doOnSuccess(response -> {
+                        if (checkpoint != null) {
+                            checkpoint.complete();
+                        }
+                    });
+        }), "工作流执行"), (outcome, startNanos, nanos) -> metrics.recordWorkflow(workflow.getWorkflowId(), outcome, nanos));
+    }
+    
+    @FunctionalInterface
+    private interface TimingRecorder {
+        void record(String outcome, long startNanos, long nanos);
+    }
+    
+    /**
+     * 订阅时开始计时，结束时按结果（success、invalid_arguments、overloaded、deadline_exceeded、error、cancelled）记录耗时
+     */
+    private static <T> Mono<T> timed(Supplier<Mono<T>> supplier, TimingRecorder recorder) {
+        return Mono.defer(() -> {
+            long startNanos = System.nanoTime();
+            return Mono.defer(supplier)
+                    .doOnSuccess(value -> recorder.record("success", startNanos, System.nanoTime() - startNanos))
+                    .doOnError(e -> recorder.record(outcomeOf(e), startNanos, System.nanoTime() - startNanos))
+                    .doOnCancel(() -> recorder.record("cancelled", startNanos, System.nanoTime() - startNanos));
+        });
+    }
+    
+    private static String outcomeOf(Throwable error) {
+        if (error instanceof InvalidArgumentsException) {
+            return "invalid_arguments";
         }
-        
-        // 准备上下文
-        Map<String, Object> context = new HashMap<>();
-        context.put("sys.query", query);
-        
-        // 获取起始节点
-        DifyWorkflow.Graph.Node startNode = workflow.getStartNode();
-        if (startNode == null) {
-            throw new IllegalStateException("无法找到工作流起始节点");
+        if (error instanceof OverloadedException) {
+            return "overloaded";
         }
-        
-        // 执行工作流
-        String result = processNode(workflow, startNode.getId(), context);
-        
-        // 返回结果
+        if (error instanceof DeadlineExceededException) {
+            return "deadline_exceeded";
+        }
+        return "error";
+    }
+    
+    /**
+     * 把检查点中节点的输出写回上下文，并像节点刚执行完一样转发回答内容
+     */
+    private Collection<String> restoreNode(CompiledWorkflow workflow, WorkflowNode node, ExecutionContext context,
+                                           Consumer<String> chunks, ExecutionTrace trace,
+                                           CheckpointStore.NodeCheckpoint checkpoint) {
+        if (checkpoint.output() != null) {
+            context.set(workflow.getOutputSlot(node.getId()), checkpoint.output());
+            if (chunks != null && workflow.isStreamingLlmNode(node.getId())) {
+                chunks.accept(checkpoint.output());
+            }
+        }
+        if (checkpoint.answer() != null) {
+            putAnswer(workflow, node, context, chunks, checkpoint.answer());
+        }
+        if (trace != null) {
+            trace.recordNode(node, System.nanoTime(), 0, "resumed");
+        }
+        return checkpoint.targets();
+    }
+    
+    private Map<String, Object> toResponse(String result) {
         Map<String, Object> response = new HashMap<>();
         response.put("result", result);
         return response;
     }
     
     /**
-     * 处理工作流节点
+     * 按拓扑序汇总各终止节点的输出
      */
-    private String processNode(DifyWorkflow workflow, String nodeId, Map<String, Object> context) {
-        // 获取当前节点
-        DifyWorkflow.Graph.Node node = workflow.getNodeById(nodeId);
-        if (node == null) {
-            throw new IllegalStateException("找不到节点: " + nodeId);
+    private String collectAnswer(CompiledWorkflow workflow, ExecutionContext context) {
+        StringBuilder result = new StringBuilder();
+        for (String nodeId : workflow.getTopologicalOrder()) {
+            Object answer = context.get(workflow.getAnswerSlot(nodeId));
+            if (answer != null) {
+                if (result.length() > 0) {
+                    result.append("\n");
+                }
+                result.append(answer);
+            }
+        }
+        return result.length() > 0 ? result.toString() : "工作流执行完成";
+    }
+    
+    /**
+     * 处理工作流节点，返回需要激活的下游节点ID
+     */
+    private Mono<Collection<String>> processNode(CompiledWorkflow workflow, WorkflowNode node,
+                                                 ExecutionContext context, Consumer<String> chunks, ExecutionTrace trace,
+                                                 Deadline deadline) {
+        if (log.isDebugEnabled()) {
+            log.debug("处理节点: {} ({}) - ID: {}", node.getTitle(), node.getType(), node.getId());
         }
-        
-        log.debug("处理节点: {} ({}) - ID: {}", node.getData().getTitle(), node.getData().getType(), node.getId());
         
         // 根据节点类型处理
-        String nodeType = node.getData().getType();
-        String result;
+        String nodeType = node.getType();
         
         switch (nodeType) {
             case "start":
-                // 起始节点，直接处理下一个节点
-                result = processNextNode(workflow, node, context);
-                break;
-                
+                // 起始节点，直接激活下游节点
+                return Mono.just(allTargets(workflow, node));
+            
             case "question-classifier":
                 // 问题分类节点
-                result = processQuestionClassifier(workflow, node, context);
-                break;
-                
+                return processQuestionClassifier(workflow, node, context, chunks, trace, deadline);
+            
             case "knowledge-retrieval":
                 // 知识检索节点
-                result = processKnowledgeRetrieval(workflow, node, context);
-                break;
-                
+                return processKnowledgeRetrieval(workflow, node, context);
+            
             case "llm":
                 // LLM处理节点
-                result = processLlmNode(workflow, node, context);
-                break;
-                
+                return processLlmNode(workflow, node, context, chunks, trace, deadline);
+            
             case "answer":
                 // 回答节点
-                result = processAnswerNode(workflow, node, context);
-                break;
-                
+                return processAnswerNode(workflow, node, context, chunks);
+            
             default:
                 log.warn("未支持的节点类型: {}", nodeType);
-                result = "不支持的节点类型: " + nodeType;
+                putAnswer(workflow, node, context, chunks, "不支持的节点类型: " + nodeType);
+                return Mono.just(Set.of());
         }
-        
-        return result;
     }
     
     /**
      * 处理问题分类节点
      */
-    private String processQuestionClassifier(DifyWorkflow workflow, DifyWorkflow.Graph.Node node, Map<String, Object> context) {
-        String query = (String) context.get("sys.query");
+    private Mono<Collection<String>> processQuestionClassifier(CompiledWorkflow workflow, WorkflowNode node,
+                                                               ExecutionContext context, Consumer<String> chunks,
+                                                               ExecutionTrace trace, Deadline deadline) {
+        String query = context.getString(CompiledWorkflow.SYS_QUERY_SLOT);
         log.debug("执行问题分类: {}", query);
         
-        List<DifyWorkflow.Graph.Node.NodeData.NodeClass> classes = node.getData().getClasses();
+        List<DifyWorkflow.Graph.Node.NodeData.NodeClass> classes = node.getClasses();
         if (classes == null || classes.isEmpty()) {
             log.warn("问题分类节点没有定义类别");
-            return processNextNode(workflow, node, context);
+            return Mono.just(firstTarget(workflow, node));
         }
         
-        // 构建分类提示
+        // 相同问题的分类结果直接从缓存获取，跳过LLM调用
+        ClassifierCache.Key cacheKey = classifierCache.key(workflow.getWorkflowId(), node.getId(), classes, query);
+        String cachedClassId = classifierCache.get(cacheKey);
+        Mono<String> classification = cachedClassId != null
+                ? Mono.just(cachedClassId)
+                : bulkheads.call(workflow.getWorkflowId(), node.getModel(), deadline,
+                        () -> callLlm(buildClassifierPrompt(query, classes), usageRecorder(workflow, node, trace)))
+                .map(String::trim);
+        
+        return classification.map(classId -> {
+            log.debug("分类结果ID: {}", classId);
+            
+            // 通过预编译的路由表查找目标节点，只激活匹配的分支
+            String target = workflow.getClassifierTarget(node.getId(), classId);
+            
+            if (target == null) {
+                log.warn("找不到与分类ID匹配的边: {}", classId);
+                // 尝试找到默认边
+                Collection<String> defaultTarget = firstTarget(workflow, node);
+                if (defaultTarget.isEmpty()) {
+                    putAnswer(workflow, node, context, chunks, "无法处理查询，找不到匹配的分类路径");
+                }
+                return defaultTarget;
+            }
+            
+            if (cachedClassId == null) {
+                classifierCache.put(cacheKey, classId);
+            }
+            return Set.of(target);
+        });
+    }
+    
+    /**
+     * 构建分类提示
+     */
+    private Prompt buildClassifierPrompt(String query, List<DifyWorkflow.Graph.Node.NodeData.NodeClass> classes) {
         StringBuilder prompt = new StringBuilder();
         prompt.append("对以下问题进行分类，只返回最匹配类别的ID：\n\n");
         prompt.append("问题: ").append(query).append("\n\n");
@@ -134,87 +373,52 @@ public class WorkflowExecutor {
                   .append(", 名称: ").append(cls.getName()).append("\n");
         });
         
-        // 使用ChatClient分类
-        Prompt classifierPrompt = new Prompt(new UserMessage(prompt.toString()));
-        ChatResponse response = chatClient.call(classifierPrompt);
-        String classId = response.getResult().getOutput().getContent().trim();
-        
-        log.debug("分类结果ID: {}", classId);
-        
-        // 查找匹配的边
-        List<DifyWorkflow.Graph.Edge> matchingEdges = workflow.getEdgesFromNode(node.getId()).stream()
-                .filter(edge -> classId.equals(edge.getSourceHandle()))
-                .toList();
-        
-        if (matchingEdges.isEmpty()) {
-            log.warn("找不到与分类ID匹配的边: {}", classId);
-            // 尝试找到默认边
-            List<DifyWorkflow.Graph.Edge> defaultEdges = workflow.getEdgesFromNode(node.getId());
-            if (!defaultEdges.isEmpty()) {
-                return processNode(workflow, defaultEdges.get(0).getTarget(), context);
-            } else {
-                return "无法处理查询，找不到匹配的分类路径";
-            }
-        }
-        
-        // 处理匹配的第一条边
-        return processNode(workflow, matchingEdges.get(0).getTarget(), context);
+        return new Prompt(new UserMessage(prompt.toString()));
     }
     
     /**
      * 处理知识检索节点
+     * <p>
+     * 查询文本取自节点的queryVariableSelector（默认为sys.query），检索结果按得分排序后
+     * 以空行分隔拼接为文本写入节点的result变量，供下游LLM节点作为上下文引用。
      */
-    private String processKnowledgeRetrieval(DifyWorkflow workflow, DifyWorkflow.Graph.Node node, Map<String, Object> context) {
-        String query = (String) context.get("sys.query");
+    private Mono<Collection<String>> processKnowledgeRetrieval(CompiledWorkflow workflow, WorkflowNode node, ExecutionContext context) {
+        List<String> selector = node.getQueryVariableSelector();
+        int querySlot = selector != null && !selector.isEmpty() ? workflow.getSlot(String.join(".", selector)) : -1;
+        String query = context.getString(querySlot >= 0 ? querySlot : CompiledWorkflow.SYS_QUERY_SLOT);
         log.debug("执行知识检索: {}", query);
         
-        // 这里应该连接实际的知识库进行检索
-        // 由于是示例实现，这里只是模拟检索结果
-        String retrievedContent = "这是一个模拟的知识检索结果，包含与用户查询\"" + query + "\"相关的信息。";
-        
-        // 将检索结果添加到上下文
-        context.put(node.getId() + ".result", retrievedContent);
+        if (query == null || query.isBlank()) {
+            context.set(workflow.getOutputSlot(node.getId()), "");
+            return Mono.just(allTargets(workflow, node));
+        }
         
-        // 处理下一个节点
-        return processNextNode(workflow, node, context);
+        return retrievalEngine.retrieve(RetrievalQuery.of(node, query))
+                .map(chunks -> {
+                    if (log.isDebugEnabled()) {
+                        log.debug("知识检索节点 {} 命中 {} 个片段", node.getId(), chunks.size());
+                    }
+                    String retrievedContent = chunks.stream()
+                            .map(RetrievedChunk::content)
+                            .collect(Collectors.joining("\n\n"));
+                    context.set(workflow.getOutputSlot(node.getId()), retrievedContent);
+                    return allTargets(workflow, node);
+                });
     }
     
     /**
      * 处理LLM节点
      */
-    private String processLlmNode(DifyWorkflow workflow, DifyWorkflow.Graph.Node node, Map<String, Object> context) {
+    private Mono<Collection<String>> processLlmNode(CompiledWorkflow workflow, WorkflowNode node,
+                                                    ExecutionContext context, Consumer<String> chunks,
+                                                    ExecutionTrace trace, Deadline deadline) {
         log.debug("执行LLM节点");
         
-        // 获取上下文内容
-        String contextContent = "";
-        if (node.getData().getContext() != null && node.getData().getContext().isEnabled()) {
-            List<String> variableSelector = node.getData().getContext().getVariableSelector();
-            if (variableSelector != null && variableSelector.size() >= 2) {
-                String contextNodeId = variableSelector.get(0);
-                String contextVarName = variableSelector.get(1);
-                String contextKey = contextNodeId + "." + contextVarName;
-                contextContent = (String) context.getOrDefault(contextKey, "");
-            }
-        }
-        
-        // 获取系统提示
-        String systemPrompt = "";
-        if (node.getData().getPromptTemplate() != null && !node.getData().getPromptTemplate().isEmpty()) {
-            for (Map<String, Object> template : node.getData().getPromptTemplate()) {
-                if ("system".equals(template.get("role"))) {
-                    systemPrompt = (String) template.get("text");
-                    break;
-                }
-            }
-        }
-        
-        // 替换模板变量
-        if (systemPrompt.contains("{{#context#}}")) {
-            systemPrompt = systemPrompt.replace("{{#context#}}", contextContent);
-        }
+        // 渲染预编译的系统提示，{{#context#}} 已在编译时映射到上下文变量
+        String systemPrompt = workflow.getTemplate(node.getId()).render(context);
         
         // 用户查询
-        String userQuery = (String) context.get("sys.query");
+        String userQuery = context.getString(CompiledWorkflow.SYS_QUERY_SLOT);
         
         // 使用ChatClient调用LLM
         Prompt prompt = new Prompt(
@@ -223,46 +427,165 @@ public class WorkflowExecutor {
                         new UserMessage(userQuery)
                 ));
         
-        ChatResponse response = chatClient.call(prompt);
-        String result = response.getResult().getOutput().getContent();
-        
-        // 保存结果到上下文
-        context.put(node.getId() + ".text", result);
+        // 输出直接作为回答时边生成边转发
+        boolean streaming = chunks != null && workflow.isStreamingLlmNode(node.getId());
+        Consumer<Usage> usage = usageRecorder(workflow, node, trace);
+        Map<String, Object> model = node.getModel();
+        Mono<String> completion;
+        if (llmResponseCache.isCacheable(node.getId(), model)) {
+            // 合并的上游调用由所有等待者共享，只受默认执行超时约束，本请求的截止时间只结束自己的等待
+            String cacheKey = llmResponseCache.fingerprint(prompt, model);
+            Deadline loadDeadline = Deadline.after(defaultTimeout);
+            Mono<String> cached = llmResponseCache.get(cacheKey,
+                    tokens -> bulkheads.call(workflow.getWorkflowId(), model, loadDeadline,
+                            () -> streaming ? streamLlm(prompt, tokens, usage) : callLlm(prompt, usage)),
+                    streaming ? chunks : null);
+            completion = deadline.apply(cached, "LLM调用");
+        } else {
+            completion = bulkheads.call(workflow.getWorkflowId(), model, deadline,
+                    () -> streaming ? streamLlm(prompt, chunks, usage) : callLlm(prompt, usage));
+        }
         
-        // 处理下一个节点
-        return processNextNode(workflow, node, context);
+        return completion.map(result -> {
+            // 保存结果到上下文
+            context.set(workflow.getOutputSlot(node.getId()), result);
+            return allTargets(workflow, node);
+        });
     }
     
     /**
      * 处理回答节点
      */
-    private String processAnswerNode(DifyWorkflow workflow, DifyWorkflow.Graph.Node node, Map<String, Object> context) {
+    private Mono<Collection<String>> processAnswerNode(CompiledWorkflow workflow, WorkflowNode node,
+                                                       ExecutionContext context, Consumer<String> chunks) {
         log.debug("执行回答节点");
         
-        // 获取回答内容
-        String answer = node.getData().getAnswer();
-        
-        // 处理变量引用
-        if (answer != null && answer.startsWith("{{#") && answer.endsWith("#}}")) {
-            String varRef = answer.substring(3, answer.length() - 3);
-            answer = (String) context.getOrDefault(varRef, "无法获取回答内容");
+        if (node.getAnswer() == null) {
+            return Mono.just(allTargets(workflow, node));
         }
         
-        return answer;
+        // 渲染预编译的回答模板，整段引用的变量缺失时返回提示
+        PromptTemplate template = workflow.getTemplate(node.getId());
+        String answer = template.isSingleVariable() && context.get(template.firstSlot()) == null
+                ? "无法获取回答内容"
+                : template.render(context);
+        putAnswer(workflow, node, context, chunks, answer);
+        return Mono.just(allTargets(workflow, node));
     }
     
     /**
-     * 处理下一个节点
+     * 调用LLM获取完整输出，虚拟线程模式下在虚拟线程上阻塞调用，否则通过流式客户端拼接输出
+     *
+     * @param usage 调用完成后接收模型返回的token用量，模型未返回用量时不回调
      */
-    private String processNextNode(DifyWorkflow workflow, DifyWorkflow.Graph.Node node, Map<String, Object> context) {
-        List<DifyWorkflow.Graph.Edge> edges = workflow.getEdgesFromNode(node.getId());
-        
+    private Mono<String> callLlm(Prompt prompt, Consumer<Usage> usage) {
+        if (virtualThreads.isEnabled()) {
+            return virtualThreads.call(() -> {
+                ChatResponse response = chatClient.call(prompt);
+                Usage reported = usageOf(response);
+                if (reported != null) {
+                    usage.accept(reported);
+                }
+                return contentOf(response);
+            });
+        }
+        AtomicReference<Usage> reported = new AtomicReference<>();
+        return streamingChatClient.stream(prompt)
+                .doOnNext(response -> captureUsage(response, reported))
+                .map(WorkflowExecutor::contentOf)
+                .collect(Collectors.joining())
+                .doOnSuccess(text -> reportUsage(reported, usage));
+    }
+    
+    /**
+     * 通过流式客户端调用LLM，每个token到达时立即转发
+     */
+    private Mono<String> streamLlm(Prompt prompt, Consumer<String> chunks, Consumer<Usage> usage) {
+        AtomicReference<Usage> reported = new AtomicReference<>();
+        return streamingChatClient.stream(prompt)
+                .doOnNext(response -> captureUsage(response, reported))
+                .map(WorkflowExecutor::contentOf)
+                .filter(token -> !token.isEmpty())
+                .doOnNext(chunks)
+                .collect(Collectors.joining())
+                .doOnSuccess(text -> reportUsage(reported, usage));
+    }
+    
+    /**
+     * 把节点的token用量记录到指标和执行跟踪
+     */
+    private Consumer<Usage> usageRecorder(CompiledWorkflow workflow, WorkflowNode node, ExecutionTrace trace) {
+        return usage -> {
+            metrics.recordTokens(workflow.getWorkflowId(), node.getId(), usage);
+            if (trace != null) {
+                trace.recordTokens(node.getId(), usage);
+            }
+        };
+    }
+    
+    /**
+     * 流式响应中只有部分片段（通常是最后一个）携带用量，保留最后一个非空的用量
+     */
+    private static void captureUsage(ChatResponse response, AtomicReference<Usage> reported) {
+        Usage usage = usageOf(response);
+        if (usage != null) {
+            reported.set(usage);
+        }
+    }
+    
+    private static void reportUsage(AtomicReference<Usage> reported, Consumer<Usage> usage) {
+        Usage last = reported.get();
+        if (last != null) {
+            usage.accept(last);
+        }
+    }
+    
+    private static Usage usageOf(ChatResponse response) {
+        if (response == null || response.getMetadata() == null) {
+            return null;
+        }
+        Usage usage = response.getMetadata().getUsage();
+        if (usage == null || usage.getTotalTokens() == null || usage.getTotalTokens() <= 0) {
+            return null;
+        }
+        return usage;
+    }
+    
+    /**
+     * 记录终止节点的输出，流式执行时同时发出尚未通过LLM流式输出的内容
+     */
+    private void putAnswer(CompiledWorkflow workflow, WorkflowNode node, ExecutionContext context,
+                           Consumer<String> chunks, String answer) {
+        context.set(workflow.getAnswerSlot(node.getId()), answer);
+        if (chunks != null && !workflow.isStreamedAnswerNode(node.getId())) {
+            chunks.accept(answer);
+        }
+    }
+    
+    private static String contentOf(ChatResponse response) {
+        if (response.getResult() == null || response.getResult().getOutput() == null) {
+            return "";
+        }
+        return Objects.requireNonNullElse(response.getResult().getOutput().getContent(), "");
+    }
+    
+    /**
+     * 激活节点的所有下游节点
+     */
+    private Collection<String> allTargets(CompiledWorkflow workflow, WorkflowNode node) {
+        List<WorkflowEdge> edges = workflow.getEdgesFrom(node.getId());
         if (edges.isEmpty()) {
-            log.debug("节点没有连接的下游节点，工作流执行结束");
-            return "工作流执行完成";
+            log.debug("节点没有连接的下游节点，分支执行结束");
+            return Set.of();
         }
-        
-        // 处理第一条边指向的节点
-        return processNode(workflow, edges.get(0).getTarget(), context);
+        return edges.stream().map(WorkflowEdge::getTarget).toList();
+    }
+    
+    /**
+     * 只激活第一条边指向的下游节点
+     */
+    private Collection<String> firstTarget(CompiledWorkflow workflow, WorkflowNode node) {
+        List<WorkflowEdge> edges = workflow.getEdgesFrom(node.getId());
+        return edges.isEmpty() ? Set.of() : Set.of(edges.get(0).getTarget());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,94 @@
+package com.example.springaidifymcpserver.service;
+
+import com.example.springaidifymcpserver.model.dify.WorkflowNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 工作流执行指标，通过Micrometer发布，由Prometheus端点（/actuator/prometheus）导出
+ * <ul>
+ *     <li>mcp.workflow.execution：单次工作流执行耗时，按workflow、outcome区分，发布直方图桶</li>
+ *     <li>mcp.node.execution：单个节点执行耗时，按workflow、node_type、node_id、outcome区分，只有次数、总耗时和最大值</li>
+ *     <li>mcp.llm.tokens：LLM调用消耗的token数，按workflow、node_id、type（prompt/generation）区分</li>
+ * </ul>
+ * outcome取值为success、invalid_arguments、overloaded、deadline_exceeded、error或cancelled。
+ * 节点指标的序列数随节点数成倍增长，不发布直方图；分位数只在工作流级别聚合。
+ * 计量器按标签组合缓存，执行时只做一次哈希查找。
+ */
+@Component
+public class WorkflowMetrics {
+
+    private final MeterRegistry registry;
+    private final Map<MeterKey, Timer> workflowTimers = new ConcurrentHashMap<>();
+    private final Map<MeterKey, Timer> nodeTimers = new ConcurrentHashMap<>();
+    private final Map<MeterKey, Counter> tokenCounters = new ConcurrentHashMap<>();
+    
+    public WorkflowMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+    
+    private record MeterKey(String workflowId, String nodeId, String tag) {
+    }
+    
+    /**
+     * 记录一次工作流执行
+     *
+     * @param outcome success、invalid_arguments、overloaded、deadline_exceeded、error或cancelled
+     */
+    public void recordWorkflow(String workflowId, String outcome, long nanos) {
+        workflowTimers.computeIfAbsent(new MeterKey(workflowId, null, outcome), key -> Timer.builder("mcp.workflow.execution")
+                        .description("工作流执行耗时")
+                        .tag("workflow", workflowId)
+                        .tag("outcome", outcome)
+                        .publishPercentileHistogram()
+                        .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+    
+    /**
+     * 记录一次节点执行
+     *
+     * @param outcome 取值同recordWorkflow
+     */
+    public void recordNode(String workflowId, WorkflowNode node, String outcome, long nanos) {
+        nodeTimers.computeIfAbsent(new MeterKey(workflowId, node.getId(), outcome), key -> Timer.builder("mcp.node.execution")
+                        .description("工作流节点执行耗时")
+                        .tag("workflow", workflowId)
+                        .tag("node_type", node.getType())
+                        .tag("node_id", node.getId())
+                        .tag("outcome", outcome)
+                        .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+    
+    /**
+     * 记录LLM调用的token用量，模型未返回用量时忽略
+     */
+    public void recordTokens(String workflowId, String nodeId, Usage usage) {
+        if (usage == null) {
+            return;
+        }
+        incrementTokens(workflowId, nodeId, "prompt", usage.getPromptTokens());
+        incrementTokens(workflowId, nodeId, "generation", usage.getGenerationTokens());
+    }
+    
+    private void incrementTokens(String workflowId, String nodeId, String type, Long tokens) {
+        if (tokens == null || tokens <= 0) {
+            return;
+        }
+        tokenCounters.computeIfAbsent(new MeterKey(workflowId, nodeId, type), key -> Counter.builder("mcp.llm.tokens")
+                        .description("LLM调用消耗的token数")
+                        .tag("workflow", workflowId)
+                        .tag("node_id", nodeId)
+                        .tag("type", type)
+                        .register(registry))
+                .increment(tokens);
+    }
+}
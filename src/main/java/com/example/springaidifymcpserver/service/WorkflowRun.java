@@ -0,0 +1,195 @@
+package com.example.springaidifymcpserver.service;
+
+import com.example.springaidifymcpserver.model.dify.CompiledWorkflow;
+import com.example.springaidifymcpserver.model.dify.WorkflowEdge;
+import com.example.springaidifymcpserver.model.dify.WorkflowNode;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 单次工作流执行的DAG调度状态
+ * <p>
+ * 节点的所有可达入边都已决议后才会就绪：至少一条入边被激活则执行，
+ * 否则视为被跳过并继续向下游传播跳过状态。就绪节点按拓扑序进入队列，
+ * 同时运行的节点数不超过并行度上限。节点处理器返回发布者，调度过程不阻塞任何线程。
+ * <p>
+ * 节点完成、失败和取消都作为信号放入队列，由一个排空循环串行处理，调度状态只在循环内访问，不需要加锁。
+ * 同步完成的节点（缓存命中、从检查点恢复）只是再入队一个信号，由当前循环在下一轮处理，
+ * 调用栈深度不随工作流长度增长。每个执行中的节点持有一个Disposable，节点结束时移除。
+ */
+class WorkflowRun {
+
+    private final CompiledWorkflow workflow;
+    private final int maxParallelism;
+    private final Function<WorkflowNode, Mono<Collection<String>>> nodeProcessor;
+    
+    private final Queue<Signal> signals = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final Sinks.Empty<Void> completion = Sinks.empty();
+    private volatile boolean cancelled;
+    
+    // 以下状态只在排空循环内访问
+    private final Map<String, Integer> resolvedEdges = new HashMap<>();
+    private final Set<String> activated = new HashSet<>();
+    private final PriorityQueue<String> readyQueue;
+    private final Map<String, Disposable> inFlight = new HashMap<>();
+    private boolean terminated;
+    
+    /**
+     * 调度信号：nodeId为null时表示从targets中的节点开始执行；error不为null时表示节点失败
+     */
+    private record Signal(String nodeId, Collection<String> targets, Throwable error) {
+    }
+    
+    /**
+     * @param nodeProcessor 执行节点并发出需要激活的下游节点ID
+     */
+    WorkflowRun(CompiledWorkflow workflow,
+                int maxParallelism,
+                Function<WorkflowNode, Mono<Collection<String>>> nodeProcessor) {
+        this.workflow = workflow;
+        this.maxParallelism = Math.max(1, maxParallelism);
+        this.nodeProcessor = nodeProcessor;
+        this.readyQueue = new PriorityQueue<>(Comparator.comparingInt(workflow::getTopologicalRank));
+    }
+    
+    /**
+     * 从起始节点开始调度，所有可达节点执行或跳过后完成；取消订阅时取消正在执行的节点
+     */
+    Mono<Void> execute(String startNodeId) {
+        return Mono.defer(() -> {
+            signal(new Signal(null, Set.of(startNodeId), null));
+            return completion.asMono();
+        }).doOnCancel(() -> {
+            cancelled = true;
+            drain();
+        });
+    }
+    
+    private void signal(Signal signal) {
+        signals.add(signal);
+        drain();
+    }
+    
+    /**
+     * 排空信号队列；已有线程在排空时只增加计数，由该线程多循环一轮
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            if (cancelled && !terminated) {
+                terminate();
+            }
+            Signal signal;
+            while ((signal = signals.poll()) != null) {
+                handle(signal);
+            }
+            dispatch();
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+    
+    private void handle(Signal signal) {
+        if (signal.nodeId() == null) {
+            readyQueue.addAll(signal.targets());
+            return;
+        }
+        inFlight.remove(signal.nodeId());
+        if (terminated) {
+            return;
+        }
+        if (signal.error() != null) {
+            terminate();
+            completion.tryEmitError(signal.error());
+            return;
+        }
+        for (WorkflowEdge edge : workflow.getEdgesFrom(signal.nodeId())) {
+            resolveEdge(edge.getTarget(), signal.targets().contains(edge.getTarget()));
+        }
+    }
+    
+    private void dispatch() {
+        while (inFlight.size() < maxParallelism && !readyQueue.isEmpty() && !terminated) {
+            String nodeId = readyQueue.poll();
+            // 先登记再订阅，同步完成的节点产生的信号在登记之后才会被处理
+            Disposable.Swap node = Disposables.swap();
+            inFlight.put(nodeId, node);
+            node.update(Mono.defer(() -> runNode(nodeId))
+                    .subscribe(
+                            targets -> signal(new Signal(nodeId, targets, null)),
+                            error -> signal(new Signal(nodeId, null, error))));
+        }
+        if (inFlight.isEmpty() && readyQueue.isEmpty() && !terminated) {
+            terminated = true;
+            completion.tryEmitEmpty();
+        }
+    }
+    
+    private void terminate() {
+        terminated = true;
+        inFlight.values().forEach(Disposable::dispose);
+        inFlight.clear();
+    }
+    
+    private Mono<Collection<String>> runNode(String nodeId) {
+        WorkflowNode node = workflow.getNode(nodeId);
+        if (node == null) {
+            return Mono.error(new IllegalStateException("找不到节点: " + nodeId));
+        }
+        return nodeProcessor.apply(node).defaultIfEmpty(Set.of());
+    }
+    
+    /**
+     * 决议一条入边，入边全部决议后节点进入就绪队列或被跳过；跳过状态沿下游逐层传播，不递归
+     */
+    private void resolveEdge(String target, boolean active) {
+        Deque<String> skipped = new ArrayDeque<>();
+        if (resolve(target, active)) {
+            skipped.push(target);
+        }
+        while (!skipped.isEmpty()) {
+            for (WorkflowEdge edge : workflow.getEdgesFrom(skipped.pop())) {
+                if (resolve(edge.getTarget(), false)) {
+                    skipped.push(edge.getTarget());
+                }
+            }
+        }
+    }
+    
+    /**
+     * 记录一条入边的决议结果，返回节点是否因此被跳过
+     */
+    private boolean resolve(String target, boolean active) {
+        if (active) {
+            activated.add(target);
+        }
+        int resolved = resolvedEdges.merge(target, 1, Integer::sum);
+        if (resolved < workflow.getIncomingCount(target)) {
+            return false;
+        }
+        if (activated.contains(target)) {
+            readyQueue.add(target);
+            return false;
+        }
+        return true;
+    }
+}
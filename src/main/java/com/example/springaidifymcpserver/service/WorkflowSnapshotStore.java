@@ -0,0 +1,204 @@
+package com.example.springaidifymcpserver.service;
+
+import com.example.springaidifymcpserver.model.dify.WorkflowDefinition;
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * 工作流二进制快照
+ * <p>
+ * 快照以Jackson Smile二进制格式保存工作流的执行模型WorkflowDefinition，写在YAML源文件旁（文件名加 .snapshot 后缀），
+ * 文件头记录格式版本、模型结构指纹和YAML内容的SHA-256。加载时如果三者都与当前一致，直接内存映射快照解码，
+ * 跳过SnakeYAML的解析、编辑器模型的反射绑定和执行模型的提取；任何一项不一致、快照损坏或不存在时回退到YAML解析并重写快照。
+ * 执行模型不含画布布局和features配置，快照只有编辑器模型的一小部分。
+ * 模型结构指纹由WorkflowDefinition及其引用的模型类的字段名和类型计算，模型增删改字段后旧快照自动失效。
+ * 目录只读时只是无法写入快照，不影响加载。
+ */
+@Slf4j
+public final class WorkflowSnapshotStore {
+
+    private static final String SUFFIX = ".snapshot";
+    private static final int MAGIC = 0x44574653;
+    /** 快照文件布局变化时递增；模型字段的变化由MODEL_FINGERPRINT检测，不需要修改版本 */
+    private static final int FORMAT_VERSION = 4;
+    private static final int MODEL_FINGERPRINT = modelFingerprint(WorkflowDefinition.class);
+    private static final int HASH_LENGTH = 32;
+    private static final int HEADER_LENGTH = 4 + 4 + 4 + HASH_LENGTH;
+    
+    private final boolean enabled;
+    private final ObjectMapper mapper;
+    
+    public WorkflowSnapshotStore(boolean enabled) {
+        this.enabled = enabled;
+        this.mapper = new ObjectMapper(new SmileFactory())
+                .setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE)
+                .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
+                .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+    
+    /**
+     * 快照文件本身不应被当作工作流源文件加载
+     */
+    public static boolean isSnapshotFile(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(SUFFIX) || name.endsWith(SUFFIX + ".tmp");
+    }
+    
+    /**
+     * 加载工作流的执行模型，快照有效时直接解码，否则调用yamlParser解析YAML内容并写入新快照
+     */
+    public WorkflowDefinition load(Path yamlFile, Function<byte[], WorkflowDefinition> yamlParser) throws IOException {
+        byte[] content = Files.readAllBytes(yamlFile);
+        if (!enabled) {
+            return yamlParser.apply(content);
+        }
+        byte[] hash = sha256(content);
+        Path snapshot = snapshotPath(yamlFile);
+        WorkflowDefinition workflow = read(snapshot, hash);
+        if (workflow != null) {
+            log.debug("从快照加载工作流: {}", snapshot);
+            return workflow;
+        }
+        workflow = yamlParser.apply(content);
+        write(snapshot, hash, workflow);
+        return workflow;
+    }
+    
+    private WorkflowDefinition read(Path snapshot, byte[] hash) {
+        if (!Files.isRegularFile(snapshot)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_LENGTH) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION || buffer.getInt() != MODEL_FINGERPRINT) {
+                return null;
+            }
+            byte[] snapshotHash = new byte[HASH_LENGTH];
+            buffer.get(snapshotHash);
+            if (!Arrays.equals(hash, snapshotHash)) {
+                return null;
+            }
+            return mapper.readValue(new ByteBufferBackedInputStream(buffer), WorkflowDefinition.class);
+        } catch (IOException | RuntimeException e) {
+            log.warn("读取工作流快照失败，改为解析YAML {}: {}", snapshot, e.getMessage());
+            return null;
+        }
+    }
+    
+    private void write(Path snapshot, byte[] hash, WorkflowDefinition workflow) {
+        Path temp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH)
+                    .putInt(MAGIC)
+                    .putInt(FORMAT_VERSION)
+                    .putInt(MODEL_FINGERPRINT)
+                    .put(hash);
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                out.write(header.array());
+                mapper.writeValue(out, workflow);
+            }
+            Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            log.debug("无法写入工作流快照 {}: {}", snapshot, e.getMessage());
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // 临时文件清理失败不影响加载
+            }
+        }
+    }
+    
+    private static Path snapshotPath(Path yamlFile) {
+        return yamlFile.resolveSibling(yamlFile.getFileName() + SUFFIX);
+    }
+    
+    /**
+     * 快照序列化的是模型类的字段，按类名、字段名和字段的泛型类型计算结构指纹，
+     * 递归包含字段类型（及其类型参数）中引用的其他模型类
+     */
+    static int modelFingerprint(Class<?> root) {
+        StringBuilder structure = new StringBuilder();
+        Set<Class<?>> visited = new HashSet<>();
+        Deque<Class<?>> pending = new ArrayDeque<>(List.of(root));
+        while (!pending.isEmpty()) {
+            Class<?> type = pending.poll();
+            if (!visited.add(type)) {
+                continue;
+            }
+            structure.append(type.getName()).append('{');
+            Arrays.stream(type.getDeclaredFields())
+                    .filter(field -> !Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers()))
+                    .sorted(Comparator.comparing(Field::getName))
+                    .forEach(field -> {
+                        String typeName = field.getGenericType().getTypeName();
+                        structure.append(field.getName()).append(':').append(typeName).append(';');
+                        collectModelTypes(field.getGenericType(), root.getPackageName(), pending);
+                    });
+            structure.append('}');
+        }
+        return ByteBuffer.wrap(sha256(structure.toString().getBytes(StandardCharsets.UTF_8))).getInt();
+    }
+    
+    private static void collectModelTypes(Type type, String modelPackage, Deque<Class<?>> pending) {
+        if (type instanceof Class<?> clazz && !clazz.isPrimitive()) {
+            if (clazz.isArray()) {
+                collectModelTypes(clazz.getComponentType(), modelPackage, pending);
+            } else if (clazz.getPackageName().equals(modelPackage)) {
+                pending.add(clazz);
+            }
+        } else if (type instanceof ParameterizedType parameterized) {
+            collectModelTypes(parameterized.getRawType(), modelPackage, pending);
+            for (Type argument : parameterized.getActualTypeArguments()) {
+                collectModelTypes(argument, modelPackage, pending);
+            }
+        } else if (type instanceof WildcardType wildcard) {
+            for (Type bound : wildcard.getUpperBounds()) {
+                collectModelTypes(bound, modelPackage, pending);
+            }
+        }
+    }
+    
+    private static byte[] sha256(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
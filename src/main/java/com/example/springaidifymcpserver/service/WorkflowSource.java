@@ -0,0 +1,117 @@
+package com.example.springaidifymcpserver.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * 工作流文件来源，由 dify.workflow.path 解析而来
+ * <p>
+ * 支持三种写法：单个文件、目录（加载目录下的 *.yml 和 *.yaml 文件）、glob表达式（例如
+ * /data/workflows/**&#47;*.yml）。glob中第一个通配符之前的目录作为根目录，工作流ID为文件相对根目录的路径。
+ */
+final class WorkflowSource {
+
+    private static final String GLOB_CHARS = "*?[{";
+    private static final PathMatcher YAML_FILES = FileSystems.getDefault().getPathMatcher("glob:*.{yml,yaml}");
+    
+    private final Path root;
+    private final Predicate<Path> matcher;
+    private final boolean recursive;
+    
+    private WorkflowSource(Path root, Predicate<Path> matcher, boolean recursive) {
+        this.root = root;
+        this.matcher = matcher;
+        this.recursive = recursive;
+    }
+    
+    static WorkflowSource of(String location) {
+        int glob = indexOfGlob(location);
+        if (glob < 0) {
+            Path path = Paths.get(location).toAbsolutePath().normalize();
+            if (Files.isDirectory(path)) {
+                return new WorkflowSource(path, file -> YAML_FILES.matches(file.getFileName()), false);
+            }
+            return new WorkflowSource(path.getParent(), path::equals, false);
+        }
+        int separator = Math.max(location.lastIndexOf('/', glob), location.lastIndexOf(File.separatorChar, glob));
+        String prefix = location.substring(0, separator + 1);
+        String pattern = location.substring(separator + 1);
+        Path root = Paths.get(prefix.isEmpty() ? "." : prefix).toAbsolutePath().normalize();
+        PathMatcher pathMatcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        boolean recursive = pattern.contains("/") || pattern.contains(File.separator) || pattern.contains("**");
+        return new WorkflowSource(root, file -> file.startsWith(root) && pathMatcher.matches(root.relativize(file)), recursive);
+    }
+    
+    private static int indexOfGlob(String location) {
+        for (int i = 0; i < location.length(); i++) {
+            if (GLOB_CHARS.indexOf(location.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * 列出当前匹配的所有工作流文件
+     */
+    List<Path> resolve() {
+        if (!Files.isDirectory(root)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.walk(root, recursive ? Integer.MAX_VALUE : 1)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(this::matches)
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    /**
+     * 需要监听变更的目录
+     */
+    List<Path> watchDirectories() {
+        if (!recursive) {
+            return List.of(root);
+        }
+        try (Stream<Path> directories = Files.walk(root)) {
+            return directories.filter(Files::isDirectory).toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    boolean matches(Path file) {
+        return !WorkflowSnapshotStore.isSnapshotFile(file) && matcher.test(file.toAbsolutePath().normalize());
+    }
+    
+    boolean isRecursive() {
+        return recursive;
+    }
+    
+    /**
+     * 工作流ID为文件相对根目录的路径，单文件和目录模式下即文件名
+     */
+    String workflowId(Path file) {
+        return root.relativize(file.toAbsolutePath().normalize()).toString().replace(File.separatorChar, '/');
+    }
+    
+    Path getRoot() {
+        return root;
+    }
+    
+    @Override
+    public String toString() {
+        return root + (recursive ? " (递归)" : "");
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.springaidifymcpserver.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * 基于WatchService的工作流文件监听，在后台守护线程中把文件变更回调给DifyWorkflowService
+ * <p>
+ * 编辑器保存文件时通常会连续产生多个事件，收到事件后会等待一小段时间合并同一文件的事件再回调。
+ */
+@Slf4j
+class WorkflowWatcher implements Closeable {
+
+    private static final long DEBOUNCE_MILLIS = 200;
+    
+    private final WorkflowSource source;
+    private final Consumer<Path> onChange;
+    private final Consumer<Path> onDelete;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+    private final Thread thread;
+    
+    WorkflowWatcher(WorkflowSource source, Consumer<Path> onChange, Consumer<Path> onDelete) throws IOException {
+        this.source = source;
+        this.onChange = onChange;
+        this.onDelete = onDelete;
+        this.watchService = source.getRoot().getFileSystem().newWatchService();
+        for (Path directory : source.watchDirectories()) {
+            register(directory);
+        }
+        this.thread = new Thread(this::run, "workflow-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+    
+    private void register(Path directory) throws IOException {
+        WatchKey key = directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        directories.put(key, directory);
+    }
+    
+    private void run() {
+        try {
+            while (true) {
+                Set<Path> changed = new LinkedHashSet<>();
+                collect(watchService.take(), changed);
+                WatchKey next;
+                while ((next = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    collect(next, changed);
+                }
+                for (Path file : changed) {
+                    dispatch(file);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            log.debug("工作流文件监听已停止");
+        }
+    }
+    
+    private void collect(WatchKey key, Set<Path> changed) {
+        Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW || directory == null) {
+                // 事件丢失时重新检查所有文件，未修改的文件会被跳过
+                changed.addAll(source.resolve());
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && source.isRecursive() && Files.isDirectory(path)) {
+                registerTree(path, changed);
+                continue;
+            }
+            changed.add(path);
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+    
+    /**
+     * 递归模式下新建的目录需要注册监听，其中已存在的文件也需要加载
+     */
+    private void registerTree(Path directory, Set<Path> changed) {
+        try (var paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isDirectory(path)) {
+                    register(path);
+                } else {
+                    changed.add(path);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("监听新目录失败 {}: {}", directory, e.getMessage());
+        }
+    }
+    
+    private void dispatch(Path file) {
+        if (!source.matches(file)) {
+            return;
+        }
+        try {
+            if (Files.isRegularFile(file)) {
+                onChange.accept(file);
+            } else if (Files.notExists(file)) {
+                onDelete.accept(file);
+            }
+        } catch (RuntimeException e) {
+            log.error("处理工作流文件变更失败 {}: {}", file, e.getMessage(), e);
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        watchService.close();
+    }
+}
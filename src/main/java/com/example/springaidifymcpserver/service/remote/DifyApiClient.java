@@ -0,0 +1,241 @@
+package com.example.springaidifymcpserver.service.remote;
+
+import com.example.springaidifymcpserver.model.dify.CompiledWorkflow;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Dify API客户端，把工作流调用转发给Dify执行
+ * <p>
+ * 对配置为远程执行的工作流，以streaming模式调用Dify的运行接口：workflow类型的应用调用 /v1/workflows/run，
+ * chat、advanced-chat类型的应用调用 /v1/chat-messages。响应按字节流增量解析为SSE事件，
+ * 回答片段（text_chunk、message）到达即转发，不等待完整响应，也不缓冲整个响应体。
+ * 调用方在工作流结束前取消时，向Dify发送停止请求，释放远端的执行资源。
+ * <p>
+ * 每个工作流可以通过 dify.remote.api-keys.&lt;工作流ID&gt; 使用各自Dify应用的API密钥，未配置时使用 dify.api.api-key。
+ */
+@Component
+@Slf4j
+public class DifyApiClient {
+
+    private static final String ALL_WORKFLOWS = "*";
+    private static final Set<String> CHAT_MODES = Set.of("chat", "advanced-chat", "agent-chat");
+    
+    private final WebClient webClient;
+    private final ObjectMapper objectMapper;
+    private final Environment environment;
+    private final String baseUrl;
+    private final String apiKey;
+    private final Set<String> remoteWorkflows;
+    private final String user;
+    
+    public DifyApiClient(WebClient.Builder webClientBuilder,
+                         ObjectMapper objectMapper,
+                         Environment environment,
+                         @Value("${dify.api.base-url:}") String baseUrl,
+                         @Value("${dify.api.api-key:}") String apiKey,
+                         @Value("${dify.remote.workflows:}") Set<String> remoteWorkflows,
+                         @Value("${dify.remote.user:mcp-server}") String user) {
+        this.webClient = webClientBuilder.baseUrl(baseUrl).build();
+        this.objectMapper = objectMapper;
+        this.environment = environment;
+        this.baseUrl = baseUrl;
+        this.apiKey = apiKey;
+        this.remoteWorkflows = remoteWorkflows;
+        this.user = user;
+    }
+    
+    /**
+     * 工作流是否配置为由Dify远程执行
+     */
+    public boolean isRemote(CompiledWorkflow workflow) {
+        if (baseUrl == null || baseUrl.isEmpty()) {
+            return false;
+        }
+        return remoteWorkflows.contains(ALL_WORKFLOWS) || remoteWorkflows.contains(workflow.getWorkflowId());
+    }
+    
+    /**
+     * 在Dify上执行工作流，返回完整回答
+     *
+     * @param inputs 已通过校验的调用参数，query作为用户问题
+     * @param chunks 回答片段的接收者，非流式执行时为null
+     */
+    public Mono<String> run(CompiledWorkflow workflow, Map<String, Object> inputs, Consumer<String> chunks) {
+        boolean chat = CHAT_MODES.contains(workflow.getMode());
+        Map<String, Object> body = new LinkedHashMap<>();
+        Map<String, Object> variables = new HashMap<>(inputs);
+        if (chat) {
+            body.put("query", variables.remove("query"));
+        }
+        body.put("inputs", variables);
+        body.put("response_mode", "streaming");
+        body.put("user", user);
+        String key = environment.getProperty("dify.remote.api-keys." + workflow.getWorkflowId(), apiKey);
+        
+        return Mono.defer(() -> {
+            SseEventParser parser = new SseEventParser();
+            RunState state = new RunState(chunks);
+            return webClient.post()
+                    .uri(chat ? "/v1/chat-messages" : "/v1/workflows/run")
+                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + key)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .accept(MediaType.TEXT_EVENT_STREAM)
+                    .bodyValue(body)
+                    .retrieve()
+                    .onStatus(HttpStatusCode::isError, response -> response.bodyToMono(String.class)
+                            .defaultIfEmpty("")
+                            .map(error -> toException(response.statusCode(), error)))
+                    .bodyToFlux(DataBuffer.class)
+                    .concatMapIterable(buffer -> {
+                        try {
+                            return parser.feed(buffer);
+                        } finally {
+                            DataBufferUtils.release(buffer);
+                        }
+                    })
+                    .concatWith(Flux.defer(() -> Flux.fromIterable(parser.finish())))
+                    .doOnNext(event -> state.accept(parse(event)))
+                    .then(Mono.fromSupplier(state::result))
+                    .doOnCancel(() -> stop(state.taskId.get(), chat, key));
+        });
+    }
+    
+    /**
+     * 单次运行的事件处理状态
+     */
+    private final class RunState {
+        
+        private final Consumer<String> chunks;
+        private final StringBuilder answer = new StringBuilder();
+        private final AtomicReference<String> taskId = new AtomicReference<>();
+        private JsonNode outputs;
+        
+        RunState(Consumer<String> chunks) {
+            this.chunks = chunks;
+        }
+        
+        void accept(JsonNode event) {
+            if (event.hasNonNull("task_id")) {
+                taskId.compareAndSet(null, event.get("task_id").asText());
+            }
+            String type = event.path("event").asText();
+            switch (type) {
+                case "text_chunk" -> append(event.path("data").path("text").asText(""));
+                case "message", "agent_message" -> append(event.path("answer").asText(""));
+                case "workflow_finished" -> {
+                    JsonNode data = event.path("data");
+                    String status = data.path("status").asText("succeeded");
+                    if (!"succeeded".equals(status)) {
+                        throw new DifyApiException(status, data.path("error").asText("工作流未成功结束"));
+                    }
+                    outputs = data.path("outputs");
+                }
+                case "error" -> throw new DifyApiException(event.path("code").asText("error"),
+                        event.path("message").asText(""));
+                default -> {
+                    // workflow_started、node_started、node_finished、message_end、ping等事件不影响回答
+                }
+            }
+        }
+        
+        private void append(String text) {
+            if (text.isEmpty()) {
+                return;
+            }
+            answer.append(text);
+            if (chunks != null) {
+                chunks.accept(text);
+            }
+        }
+        
+        /**
+         * 有流式回答时以回答为结果，否则取工作流的输出
+         */
+        String result() {
+            if (answer.length() > 0) {
+                return answer.toString();
+            }
+            String result = outputText(outputs);
+            if (chunks != null && !result.isEmpty()) {
+                chunks.accept(result);
+            }
+            return result;
+        }
+    }
+    
+    /**
+     * 工作流输出只有一个变量或包含text、answer、result时取其文本，否则返回输出的JSON
+     */
+    private String outputText(JsonNode outputs) {
+        if (outputs == null || outputs.isNull() || outputs.isMissingNode() || outputs.isEmpty()) {
+            return "";
+        }
+        for (String name : new String[] {"text", "answer", "result"}) {
+            if (outputs.path(name).isTextual()) {
+                return outputs.get(name).asText();
+            }
+        }
+        if (outputs.size() == 1 && outputs.elements().next().isTextual()) {
+            return outputs.elements().next().asText();
+        }
+        return outputs.toString();
+    }
+    
+    private JsonNode parse(String event) {
+        try {
+            return objectMapper.readTree(event);
+        } catch (JsonProcessingException e) {
+            throw new DifyApiException("invalid_response", "无法解析Dify事件: " + e.getOriginalMessage());
+        }
+    }
+    
+    private DifyApiException toException(HttpStatusCode status, String body) {
+        try {
+            JsonNode error = objectMapper.readTree(body);
+            return new DifyApiException(error.path("code").asText(String.valueOf(status.value())),
+                    error.path("message").asText(body));
+        } catch (JsonProcessingException e) {
+            return new DifyApiException(String.valueOf(status.value()), body);
+        }
+    }
+    
+    /**
+     * 通知Dify停止尚未结束的运行，失败只记录日志
+     */
+    private void stop(String taskId, boolean chat, String key) {
+        if (taskId == null) {
+            return;
+        }
+        webClient.post()
+                .uri(chat ? "/v1/chat-messages/{taskId}/stop" : "/v1/workflows/tasks/{taskId}/stop", taskId)
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + key)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("user", user))
+                .retrieve()
+                .toBodilessEntity()
+                .subscribe(
+                        response -> log.debug("已停止Dify运行: {}", taskId),
+                        e -> log.warn("停止Dify运行失败 {}: {}", taskId, e.getMessage()));
+    }
+}
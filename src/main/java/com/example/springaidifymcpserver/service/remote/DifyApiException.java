@@ -0,0 +1,18 @@
+package com.example.springaidifymcpserver.service.remote;
+
+import lombok.Getter;
+
+/**
+ * Dify API返回错误或工作流运行失败
+ */
+@Getter
+public class DifyApiException extends RuntimeException {
+
+    /** Dify的错误码或运行状态，例如 invalid_param、failed */
+    private final String code;
+    
+    public DifyApiException(String code, String message) {
+        super("Dify工作流执行失败（" + code + "）: " + message);
+        this.code = code;
+    }
+}
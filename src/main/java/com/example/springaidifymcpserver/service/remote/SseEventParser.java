@@ -0,0 +1,84 @@
+package com.example.springaidifymcpserver.service.remote;
+
+import org.springframework.core.io.buffer.DataBuffer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 增量解析SSE字节流
+ * <p>
+ * 每次输入一个网络缓冲区，返回其中已完整的事件的data内容。未完成的行保留在内部缓冲中，
+ * 跨缓冲区的多字节UTF-8字符在整行到齐后才解码，不会被截断。只缓冲当前事件，不缓冲整个响应。
+ * 多行data按SSE规范以换行连接，注释行和event、id、retry字段被忽略（Dify的事件类型在data的JSON中）。
+ * 非线程安全，每个响应使用一个实例。
+ */
+final class SseEventParser {
+
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+    private final StringBuilder data = new StringBuilder();
+    private boolean hasData;
+    private boolean skipLineFeed;
+    
+    /**
+     * 输入一个缓冲区，返回其中结束的事件；缓冲区由调用方释放
+     */
+    List<String> feed(DataBuffer buffer) {
+        List<String> events = new ArrayList<>(1);
+        while (buffer.readableByteCount() > 0) {
+            byte b = buffer.read();
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (b == '\n') {
+                    continue;
+                }
+            }
+            if (b == '\r' || b == '\n') {
+                skipLineFeed = b == '\r';
+                endLine(events);
+            } else {
+                line.write(b);
+            }
+        }
+        return events;
+    }
+    
+    /**
+     * 响应结束，返回最后一个没有以空行结尾的事件
+     */
+    List<String> finish() {
+        List<String> events = new ArrayList<>(1);
+        if (line.size() > 0) {
+            endLine(events);
+        }
+        dispatch(events);
+        return events;
+    }
+    
+    private void endLine(List<String> events) {
+        if (line.size() == 0) {
+            dispatch(events);
+            return;
+        }
+        String text = line.toString(StandardCharsets.UTF_8);
+        line.reset();
+        if (text.startsWith("data:")) {
+            if (hasData) {
+                data.append('\n');
+            }
+            int start = text.length() > 5 && text.charAt(5) == ' ' ? 6 : 5;
+            data.append(text, start, text.length());
+            hasData = true;
+        }
+    }
+    
+    private void dispatch(List<String> events) {
+        if (hasData) {
+            events.add(data.toString());
+            data.setLength(0);
+            hasData = false;
+        }
+    }
+}
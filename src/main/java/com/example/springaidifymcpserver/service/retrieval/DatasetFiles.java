@@ -0,0 +1,71 @@
+package com.example.springaidifymcpserver.service.retrieval;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * 数据集文件读取与分片
+ * <p>
+ * 每个数据集是数据集根目录下以数据集ID命名的子目录，其中的 .txt 和 .md 文件（含子目录）按空行分段，
+ * 相邻段落合并为不超过chunkSize个字符的片段，超长段落按chunkSize硬切分。
+ */
+final class DatasetFiles {
+
+    private static final Pattern PARAGRAPH_BREAK = Pattern.compile("\\R\\s*\\R");
+    
+    private DatasetFiles() {
+    }
+    
+    static boolean isDatasetFile(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".txt") || name.endsWith(".md");
+    }
+    
+    /**
+     * 列出数据集目录下的全部数据集文件，按路径排序，保证片段编号稳定
+     */
+    static List<Path> list(Path datasetDirectory) throws IOException {
+        try (Stream<Path> stream = Files.walk(datasetDirectory)) {
+            return stream.filter(Files::isRegularFile)
+                    .filter(DatasetFiles::isDatasetFile)
+                    .sorted()
+                    .toList();
+        }
+    }
+    
+    /**
+     * 按段落把文本切分为片段
+     */
+    static List<String> split(String text, int chunkSize) {
+        List<String> chunks = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (String raw : PARAGRAPH_BREAK.split(text)) {
+            String paragraph = raw.strip();
+            if (paragraph.isEmpty()) {
+                continue;
+            }
+            if (current.length() > 0 && current.length() + 2 + paragraph.length() > chunkSize) {
+                chunks.add(current.toString());
+                current.setLength(0);
+            }
+            while (paragraph.length() > chunkSize) {
+                chunks.add(paragraph.substring(0, chunkSize));
+                paragraph = paragraph.substring(chunkSize);
+            }
+            if (current.length() > 0) {
+                current.append("\n\n");
+            }
+            current.append(paragraph);
+        }
+        if (current.length() > 0) {
+            chunks.add(current.toString());
+        }
+        return chunks;
+    }
+}
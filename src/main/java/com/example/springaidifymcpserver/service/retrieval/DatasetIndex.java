@@ -0,0 +1,162 @@
+package com.example.springaidifymcpserver.service.retrieval;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 单个数据集的检索索引，由每个源文件的索引段和覆盖全部片段的向量索引组成
+ * <p>
+ * 构建完成后只读，数据集文件变化时在后台构建新的实例整体替换，查询始终看到完整一致的索引。
+ * 片段在数据集内按段的顺序连续编号，编号与向量索引中的编号一致。
+ */
+final class DatasetIndex {
+
+    private static final double BM25_K1 = 1.2;
+    private static final double BM25_B = 0.75;
+    
+    private final String datasetId;
+    private final List<DatasetSegment> segments;
+    /** 每个段第一个片段的编号 */
+    private final int[] segmentStarts;
+    private final int size;
+    private final double averageTokens;
+    private final HnswIndex vectors;
+    
+    /**
+     * 片段的检索结果
+     *
+     * @param id    片段在数据集内的编号
+     * @param score 向量检索时为余弦相似度，关键词检索时为BM25得分
+     */
+    record Hit(int id, double score) {
+    }
+    
+    DatasetIndex(String datasetId, List<DatasetSegment> segments, int m, int efConstruction) {
+        this.datasetId = datasetId;
+        this.segments = List.copyOf(segments);
+        this.segmentStarts = new int[segments.size()];
+        int total = 0;
+        long tokens = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            segmentStarts[i] = total;
+            total += segments.get(i).size();
+            tokens += segments.get(i).totalTokens();
+        }
+        this.size = total;
+        this.averageTokens = total > 0 ? (double) tokens / total : 0;
+        
+        int dimensions = segments.stream().mapToInt(DatasetSegment::dimensions).max().orElse(0);
+        HnswIndex.Builder builder = new HnswIndex.Builder(dimensions, total, m, efConstruction);
+        for (DatasetSegment segment : segments) {
+            for (int doc = 0; doc < segment.size(); doc++) {
+                builder.add(segment.vector(doc));
+            }
+        }
+        this.vectors = builder.build();
+    }
+    
+    String datasetId() {
+        return datasetId;
+    }
+    
+    int size() {
+        return size;
+    }
+    
+    List<DatasetSegment> segments() {
+        return segments;
+    }
+    
+    /**
+     * 按源文件查找段
+     */
+    Map<String, DatasetSegment> segmentsBySource() {
+        return segments.stream().collect(Collectors.toMap(DatasetSegment::getSource, Function.identity()));
+    }
+    
+    /**
+     * 片段的来源文件
+     */
+    String source(int id) {
+        return segments.get(segmentOf(id)).getSource();
+    }
+    
+    /**
+     * 片段文本
+     */
+    String content(int id) {
+        int segment = segmentOf(id);
+        return segments.get(segment).content(id - segmentStarts[segment]);
+    }
+    
+    private int segmentOf(int id) {
+        int index = Arrays.binarySearch(segmentStarts, id);
+        if (index < 0) {
+            return -index - 2;
+        }
+        // 空段与下一个段起点相同，取最后一个起点为id的段
+        while (index + 1 < segmentStarts.length && segmentStarts[index + 1] == id) {
+            index++;
+        }
+        return index;
+    }
+    
+    /**
+     * 向量检索，结果按余弦相似度从高到低排序
+     */
+    List<Hit> vectorSearch(float[] query, int limit, int ef) {
+        List<Hit> hits = new ArrayList<>();
+        for (HnswIndex.Hit hit : vectors.search(query, limit, ef)) {
+            hits.add(new Hit(hit.id(), hit.score()));
+        }
+        return hits;
+    }
+    
+    /**
+     * BM25关键词检索，结果按得分从高到低排序
+     */
+    List<Hit> keywordSearch(Collection<String> terms, int limit) {
+        if (size == 0 || limit <= 0) {
+            return List.of();
+        }
+        double[] scores = new double[size];
+        int[] matched = new int[size];
+        int matchedCount = 0;
+        for (String term : new LinkedHashSet<>(terms)) {
+            int docFrequency = 0;
+            for (DatasetSegment segment : segments) {
+                docFrequency += segment.docFrequency(term);
+            }
+            if (docFrequency == 0) {
+                continue;
+            }
+            double idf = Math.log(1 + (size - docFrequency + 0.5) / (docFrequency + 0.5));
+            for (int i = 0; i < segments.size(); i++) {
+                DatasetSegment segment = segments.get(i);
+                int start = segmentStarts[i];
+                int[] count = {matchedCount};
+                segment.forEachPosting(term, (doc, termFrequency) -> {
+                    double norm = BM25_K1 * (1 - BM25_B + BM25_B * segment.tokenCount(doc) / averageTokens);
+                    int id = start + doc;
+                    if (scores[id] == 0) {
+                        matched[count[0]++] = id;
+                    }
+                    scores[id] += idf * termFrequency * (BM25_K1 + 1) / (termFrequency + norm);
+                });
+                matchedCount = count[0];
+            }
+        }
+        List<Hit> hits = new ArrayList<>(matchedCount);
+        for (int i = 0; i < matchedCount; i++) {
+            hits.add(new Hit(matched[i], scores[matched[i]]));
+        }
+        hits.sort((a, b) -> Double.compare(b.score(), a.score()));
+        return hits.size() > limit ? List.copyOf(hits.subList(0, limit)) : hits;
+    }
+}
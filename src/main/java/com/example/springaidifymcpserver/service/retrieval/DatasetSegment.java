@@ -0,0 +1,329 @@
+package com.example.springaidifymcpserver.service.retrieval;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 数据集中单个文件的索引段
+ * <p>
+ * 段文件保存该文件的全部片段、片段向量和关键词倒排表，文件头记录源文件内容的SHA-256和分片大小，
+ * 源文件未修改时直接复用，重启后也不需要重新生成向量。段文件通过内存映射读取：
+ * 片段文本在返回结果时才解码，倒排表以变长整数差值编码，查询时直接在映射区上解码，只有词典常驻堆内。
+ * <p>
+ * 文件布局：
+ * <pre>
+ * magic, version, sha256[32], chunkSize, source, chunkCount, dimensions
+ * chunkCount × (tokenCount, contentLength, content)
+ * chunkCount × dimensions × float
+ * termCount, termCount × (term, docFrequency, postingsOffset)
+ * postingsLength, postings: 每个词 docFrequency × (varint 片段编号差值, varint 词频)
+ * </pre>
+ */
+@Slf4j
+final class DatasetSegment {
+
+    static final String SUFFIX = ".seg";
+    private static final int MAGIC = 0x44534547;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HASH_LENGTH = 32;
+    
+    private final String source;
+    private final byte[] contentHash;
+    private final ByteBuffer buffer;
+    private final int[] contentOffsets;
+    private final int[] tokenCounts;
+    private final long totalTokens;
+    private final FloatBuffer vectors;
+    private final int dimensions;
+    /** 词 → {倒排表在postings区中的偏移, 文档频率} */
+    private final Map<String, int[]> dictionary;
+    private final int postingsStart;
+    
+    private DatasetSegment(ByteBuffer buffer) {
+        this.buffer = buffer;
+        ByteBuffer in = buffer.duplicate();
+        if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) {
+            throw new IllegalArgumentException("不是有效的索引段文件");
+        }
+        this.contentHash = new byte[HASH_LENGTH];
+        in.get(contentHash);
+        in.getInt();
+        this.source = readString(in);
+        int chunkCount = in.getInt();
+        this.dimensions = in.getInt();
+        this.contentOffsets = new int[chunkCount];
+        this.tokenCounts = new int[chunkCount];
+        long tokens = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            tokenCounts[i] = in.getInt();
+            tokens += tokenCounts[i];
+            int length = in.getInt();
+            contentOffsets[i] = in.position();
+            in.position(in.position() + length);
+        }
+        this.totalTokens = tokens;
+        int vectorBytes = chunkCount * dimensions * Float.BYTES;
+        this.vectors = in.slice(in.position(), vectorBytes).asFloatBuffer();
+        in.position(in.position() + vectorBytes);
+        int termCount = in.getInt();
+        this.dictionary = new HashMap<>(Math.max(16, termCount * 4 / 3 + 1));
+        for (int i = 0; i < termCount; i++) {
+            String term = readString(in);
+            int docFrequency = readVarint(in);
+            int offset = readVarint(in);
+            dictionary.put(term, new int[]{offset, docFrequency});
+        }
+        in.getInt();
+        this.postingsStart = in.position();
+    }
+    
+    /**
+     * 打开已有的段文件，文件不存在、损坏或与源文件内容、分片大小不一致时返回null
+     */
+    static DatasetSegment open(Path file, byte[] contentHash, int chunkSize) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            ByteBuffer header = mapped.duplicate();
+            if (header.remaining() < 12 + HASH_LENGTH || header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            byte[] hash = new byte[HASH_LENGTH];
+            header.get(hash);
+            if (!Arrays.equals(hash, contentHash) || header.getInt() != chunkSize) {
+                return null;
+            }
+            return new DatasetSegment(mapped);
+        } catch (IOException | RuntimeException e) {
+            log.warn("读取索引段失败，将重新构建 {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * 为一个源文件构建索引段并写入file，目录不可写时段只保存在内存中
+     *
+     * @param vectors 与chunks一一对应的向量
+     */
+    static DatasetSegment create(Path file, String source, byte[] contentHash, int chunkSize,
+                                 List<String> chunks, List<float[]> vectors) {
+        byte[] content = encode(source, contentHash, chunkSize, chunks, vectors);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                out.write(content);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                return new DatasetSegment(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        } catch (IOException e) {
+            log.debug("无法写入索引段 {}: {}", file, e.getMessage());
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // 临时文件清理失败不影响导入
+            }
+            return new DatasetSegment(ByteBuffer.wrap(content));
+        }
+    }
+    
+    private static byte[] encode(String source, byte[] contentHash, int chunkSize,
+                                 List<String> chunks, List<float[]> vectors) {
+        int dimensions = vectors.isEmpty() ? 0 : vectors.get(0).length;
+        // 词按字典序排列，倒排表按片段编号递增
+        TreeMap<String, ByteArrayOutputStream> postings = new TreeMap<>();
+        Map<String, Integer> docFrequencies = new HashMap<>();
+        Map<String, Integer> lastDocs = new HashMap<>();
+        int[] tokenCounts = new int[chunks.size()];
+        for (int doc = 0; doc < chunks.size(); doc++) {
+            List<String> tokens = Tokenizer.tokenize(chunks.get(doc));
+            tokenCounts[doc] = tokens.size();
+            Map<String, Integer> frequencies = new TreeMap<>();
+            for (String token : tokens) {
+                frequencies.merge(token, 1, Integer::sum);
+            }
+            for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                String term = entry.getKey();
+                ByteArrayOutputStream list = postings.computeIfAbsent(term, k -> new ByteArrayOutputStream());
+                writeVarint(list, doc - lastDocs.getOrDefault(term, 0));
+                writeVarint(list, entry.getValue());
+                lastDocs.put(term, doc);
+                docFrequencies.merge(term, 1, Integer::sum);
+            }
+        }
+        
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.write(contentHash);
+            out.writeInt(chunkSize);
+            writeString(out, source);
+            out.writeInt(chunks.size());
+            out.writeInt(dimensions);
+            for (int doc = 0; doc < chunks.size(); doc++) {
+                byte[] text = chunks.get(doc).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(tokenCounts[doc]);
+                out.writeInt(text.length);
+                out.write(text);
+            }
+            for (float[] vector : vectors) {
+                for (float value : vector) {
+                    out.writeFloat(value);
+                }
+            }
+            out.writeInt(postings.size());
+            ByteArrayOutputStream postingsArea = new ByteArrayOutputStream();
+            ByteArrayOutputStream dictionary = new ByteArrayOutputStream();
+            for (Map.Entry<String, ByteArrayOutputStream> entry : postings.entrySet()) {
+                byte[] term = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                writeVarint(dictionary, term.length);
+                dictionary.write(term);
+                writeVarint(dictionary, docFrequencies.get(entry.getKey()));
+                writeVarint(dictionary, postingsArea.size());
+                entry.getValue().writeTo(postingsArea);
+            }
+            dictionary.writeTo(out);
+            out.writeInt(postingsArea.size());
+            postingsArea.writeTo(out);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    String getSource() {
+        return source;
+    }
+    
+    boolean hasContentHash(byte[] hash) {
+        return Arrays.equals(contentHash, hash);
+    }
+    
+    int size() {
+        return contentOffsets.length;
+    }
+    
+    int dimensions() {
+        return dimensions;
+    }
+    
+    long totalTokens() {
+        return totalTokens;
+    }
+    
+    int tokenCount(int doc) {
+        return tokenCounts[doc];
+    }
+    
+    /**
+     * 解码片段文本
+     */
+    String content(int doc) {
+        ByteBuffer in = buffer.duplicate();
+        int offset = contentOffsets[doc];
+        int length = in.getInt(offset - Integer.BYTES);
+        byte[] text = new byte[length];
+        in.get(offset, text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * 读取片段向量
+     */
+    float[] vector(int doc) {
+        float[] vector = new float[dimensions];
+        vectors.get(doc * dimensions, vector);
+        return vector;
+    }
+    
+    /**
+     * 包含词的片段数，不包含时为0
+     */
+    int docFrequency(String term) {
+        int[] entry = dictionary.get(term);
+        return entry != null ? entry[1] : 0;
+    }
+    
+    /**
+     * 遍历词的倒排表
+     */
+    void forEachPosting(String term, PostingConsumer consumer) {
+        int[] entry = dictionary.get(term);
+        if (entry == null) {
+            return;
+        }
+        ByteBuffer in = buffer.duplicate();
+        in.position(postingsStart + entry[0]);
+        int doc = 0;
+        for (int i = 0; i < entry[1]; i++) {
+            doc += readVarint(in);
+            consumer.accept(doc, readVarint(in));
+        }
+    }
+    
+    @FunctionalInterface
+    interface PostingConsumer {
+        void accept(int doc, int termFrequency);
+    }
+    
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+    
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[readVarint(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private static void writeVarint(OutputStream out, int value) {
+        try {
+            while ((value & ~0x7F) != 0) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        byte current;
+        do {
+            current = in.get();
+            value |= (current & 0x7F) << shift;
+            shift += 7;
+        } while (current < 0);
+        return value;
+    }
+}
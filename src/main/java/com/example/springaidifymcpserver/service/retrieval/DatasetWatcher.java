@@ -0,0 +1,136 @@
+package com.example.springaidifymcpserver.service.retrieval;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * 基于WatchService的数据集目录监听，在后台守护线程中把发生变化的数据集ID回调给检索引擎
+ * <p>
+ * 监听数据集根目录及其全部子目录（以 . 开头的目录除外，索引段就保存在其中）。
+ * 重新导入数据集的代价较高，收到事件后等待一段时间，把这期间同一数据集的所有变更合并为一次回调。
+ */
+@Slf4j
+class DatasetWatcher implements Closeable {
+
+    private static final long DEBOUNCE_MILLIS = 500;
+    
+    private final Path root;
+    private final Consumer<String> onChange;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+    private final Thread thread;
+    
+    DatasetWatcher(Path root, Consumer<String> onChange) throws IOException {
+        this.root = root;
+        this.onChange = onChange;
+        this.watchService = root.getFileSystem().newWatchService();
+        registerTree(root);
+        this.thread = new Thread(this::run, "dataset-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+    
+    private void registerTree(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isDirectory(path) && !isHidden(path)) {
+                    WatchKey key = path.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                    directories.put(key, path);
+                }
+            }
+        }
+    }
+    
+    private void run() {
+        try {
+            while (true) {
+                Set<String> changed = new LinkedHashSet<>();
+                collect(watchService.take(), changed);
+                WatchKey next;
+                while ((next = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    collect(next, changed);
+                }
+                for (String datasetId : changed) {
+                    try {
+                        onChange.accept(datasetId);
+                    } catch (RuntimeException e) {
+                        log.error("处理数据集变更失败 {}: {}", datasetId, e.getMessage(), e);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            log.debug("数据集目录监听已停止");
+        }
+    }
+    
+    private void collect(WatchKey key, Set<String> changed) {
+        Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW || directory == null) {
+                // 事件丢失时重新检查所有数据集，内容未变的文件会复用已有的索引段
+                try (Stream<Path> children = Files.list(root)) {
+                    children.filter(Files::isDirectory)
+                            .filter(path -> !isHidden(path))
+                            .forEach(path -> changed.add(path.getFileName().toString()));
+                } catch (IOException e) {
+                    log.warn("无法读取数据集目录 {}: {}", root, e.getMessage());
+                }
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (isHidden(path)) {
+                continue;
+            }
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                try {
+                    registerTree(path);
+                } catch (IOException e) {
+                    log.warn("监听新目录失败 {}: {}", path, e.getMessage());
+                }
+            }
+            Path relative = root.relativize(path);
+            if (relative.getNameCount() > 1 || Files.isDirectory(path) || event.kind() == ENTRY_DELETE) {
+                changed.add(relative.getName(0).toString());
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+    
+    private boolean isHidden(Path path) {
+        Path relative = root.relativize(path);
+        for (Path name : relative) {
+            if (name.toString().startsWith(".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        watchService.close();
+    }
+}
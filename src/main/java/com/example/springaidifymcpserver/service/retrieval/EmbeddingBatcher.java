@@ -0,0 +1,213 @@
+package com.example.springaidifymcpserver.service.retrieval;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.embedding.EmbeddingClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 向量生成的微批处理队列，查询和数据集导入共用
+ * <p>
+ * 并发请求的文本先进入队列，队列攒满maxBatchSize条或第一条文本等待超过maxWait时，
+ * 合并为一次批量的EmbeddingClient调用，结果再分发给各自的调用方。
+ * 队列中和调用中的相同文本只生成一次，同时到达的重复查询共享同一个结果。
+ * 查询向量另外缓存在Caffeine缓存中，重复的查询不再调用嵌入模型；数据集片段只会生成一次，不进入缓存，
+ * 以免导入时把查询向量挤出缓存。返回的向量可能被多个调用方共享，调用方不应修改。
+ * 查询向量缓存以cache=query-embedding发布为缓存指标，每批的文本数发布为mcp.embedding.batch.size。
+ */
+@Component
+@Slf4j
+public class EmbeddingBatcher implements MeterBinder {
+
+    private final EmbeddingClient embeddingClient;
+    private final int maxBatchSize;
+    private final Duration maxWait;
+    private final Semaphore concurrentRequests;
+    private final Cache<String, float[]> queryCache;
+    /** 已入队或正在生成的文本 */
+    private final Map<String, CompletableFuture<float[]>> inFlight = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+    private final Object lock = new Object();
+    private List<String> pending = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+    private volatile DistributionSummary batchSizes;
+    
+    public EmbeddingBatcher(EmbeddingClient embeddingClient,
+                            @Value("${mcp.retrieval.embedding.max-batch-size:64}") int maxBatchSize,
+                            @Value("${mcp.retrieval.embedding.max-wait:PT0.01S}") Duration maxWait,
+                            @Value("${mcp.retrieval.embedding.max-concurrent-requests:4}") int maxConcurrentRequests,
+                            @Value("${mcp.retrieval.embedding.cache-size:10000}") long cacheSize) {
+        this.embeddingClient = embeddingClient;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxWait = maxWait;
+        this.concurrentRequests = new Semaphore(Math.max(1, maxConcurrentRequests), true);
+        this.queryCache = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .recordStats()
+                .build();
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "embedding-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    @PreDestroy
+    public void close() {
+        timer.shutdownNow();
+    }
+    
+    /**
+     * 生成查询向量，优先使用缓存
+     */
+    public CompletableFuture<float[]> embedQuery(String query) {
+        float[] cached = queryCache.getIfPresent(query);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return submit(query).thenApply(vector -> {
+            queryCache.put(query, vector);
+            return vector;
+        });
+    }
+    
+    /**
+     * 生成一组文本的向量（阻塞），结果与texts一一对应
+     */
+    public List<float[]> embedAll(List<String> texts) {
+        List<CompletableFuture<float[]>> futures = texts.stream()
+                .map(this::submit)
+                .toList();
+        try {
+            return futures.stream()
+                    .map(CompletableFuture::join)
+                    .toList();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+    
+    /**
+     * 查询向量缓存的命中/未命中统计
+     */
+    public CacheStats stats() {
+        return queryCache.stats();
+    }
+    
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, queryCache, "query-embedding");
+        batchSizes = DistributionSummary.builder("mcp.embedding.batch.size")
+                .description("单次嵌入调用合并的文本数")
+                .register(registry);
+    }
+    
+    private CompletableFuture<float[]> submit(String text) {
+        CompletableFuture<float[]> created = new CompletableFuture<>();
+        CompletableFuture<float[]> existing = inFlight.putIfAbsent(text, created);
+        if (existing != null) {
+            return existing;
+        }
+        synchronized (lock) {
+            pending.add(text);
+            if (pending.size() >= maxBatchSize) {
+                flushLocked();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = timer.schedule(this::flush, maxWait.toNanos(), TimeUnit.NANOSECONDS);
+            }
+        }
+        return created;
+    }
+    
+    private void flush() {
+        synchronized (lock) {
+            flushLocked();
+        }
+    }
+    
+    private void flushLocked() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<String> batch = pending;
+        pending = new ArrayList<>();
+        // 嵌入调用是阻塞的远程调用，在弹性线程池上执行，并发的批次数受信号量限制
+        Schedulers.boundedElastic().schedule(() -> call(batch));
+    }
+    
+    private void call(List<String> batch) {
+        try {
+            concurrentRequests.acquire();
+            List<List<Double>> embeddings;
+            try {
+                embeddings = embeddingClient.embed(batch);
+            } finally {
+                concurrentRequests.release();
+            }
+            if (embeddings.size() != batch.size()) {
+                throw new IllegalStateException("嵌入模型返回的向量数与文本数不一致: " + embeddings.size() + " != " + batch.size());
+            }
+            DistributionSummary summary = batchSizes;
+            if (summary != null) {
+                summary.record(batch.size());
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                complete(batch.get(i), toFloats(embeddings.get(i)), null);
+            }
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            log.warn("批量生成向量失败（{} 条）: {}", batch.size(), e.getMessage());
+            for (String text : batch) {
+                complete(text, null, e);
+            }
+        }
+    }
+    
+    private void complete(String text, float[] vector, Throwable error) {
+        CompletableFuture<float[]> future = inFlight.remove(text);
+        if (future == null) {
+            return;
+        }
+        if (error != null) {
+            future.completeExceptionally(error);
+        } else {
+            future.complete(vector);
+        }
+    }
+    
+    private static float[] toFloats(List<Double> embedding) {
+        float[] vector = new float[embedding.size()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = embedding.get(i).floatValue();
+        }
+        return vector;
+    }
+}
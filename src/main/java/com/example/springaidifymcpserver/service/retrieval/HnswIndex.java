@@ -0,0 +1,328 @@
+package com.example.springaidifymcpserver.service.retrieval;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+/**
+ * HNSW近似最近邻索引
+ * <p>
+ * 向量归一化后存放在堆外的直接内存中，相似度为余弦相似度（归一化向量的点积）。
+ * 索引通过Builder一次性构建，构建完成后只读，查询不需要加锁，可以被任意线程并发访问。
+ */
+public final class HnswIndex {
+
+    private static final int[] NO_LINKS = new int[0];
+    private static final int MAX_LEVEL = 16;
+    private static final Comparator<Hit> BEST_FIRST = Comparator.comparingDouble(Hit::score).reversed();
+    private static final Comparator<Hit> WORST_FIRST = Comparator.comparingDouble(Hit::score);
+    
+    private final int dimensions;
+    private final int size;
+    private final FloatBuffer vectors;
+    /** links[node][level] 为节点在该层的邻居 */
+    private final int[][][] links;
+    private final int entryPoint;
+    private final int maxLevel;
+    
+    private HnswIndex(int dimensions, int size, FloatBuffer vectors, int[][][] links, int entryPoint, int maxLevel) {
+        this.dimensions = dimensions;
+        this.size = size;
+        this.vectors = vectors;
+        this.links = links;
+        this.entryPoint = entryPoint;
+        this.maxLevel = maxLevel;
+    }
+    
+    /**
+     * 查询结果，id为向量加入索引的顺序
+     */
+    public record Hit(int id, float score) {
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public int dimensions() {
+        return dimensions;
+    }
+    
+    /**
+     * 查找与query最相似的k个向量，结果按相似度从高到低排序
+     *
+     * @param ef 第0层搜索的候选集大小，越大召回越高、耗时越长
+     */
+    public List<Hit> search(float[] query, int k, int ef) {
+        if (size == 0 || k <= 0) {
+            return List.of();
+        }
+        if (query.length != dimensions) {
+            throw new IllegalArgumentException("向量维度不匹配: " + query.length + " != " + dimensions);
+        }
+        float[] normalized = normalize(query.clone());
+        Hit entry = greedyDescent(vectors, dimensions, links, normalized, entryPoint, maxLevel, 0);
+        PriorityQueue<Hit> results = searchLayer(vectors, dimensions, links, normalized, entry,
+                Math.max(ef, k), 0, new BitSet(size));
+        List<Hit> hits = new ArrayList<>(results);
+        hits.sort(BEST_FIRST);
+        return hits.size() > k ? List.copyOf(hits.subList(0, k)) : hits;
+    }
+    
+    /**
+     * 从最高层逐层贪心下降，返回在targetLevel层的入口点
+     */
+    private static Hit greedyDescent(FloatBuffer vectors, int dimensions, int[][][] links, float[] query,
+                                     int entryPoint, int fromLevel, int targetLevel) {
+        int current = entryPoint;
+        float currentScore = similarity(vectors, dimensions, query, current);
+        for (int level = fromLevel; level > targetLevel; level--) {
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                for (int neighbor : neighbors(links, current, level)) {
+                    float score = similarity(vectors, dimensions, query, neighbor);
+                    if (score > currentScore) {
+                        current = neighbor;
+                        currentScore = score;
+                        improved = true;
+                    }
+                }
+            }
+        }
+        return new Hit(current, currentScore);
+    }
+    
+    /**
+     * 在单层上做best-first搜索，返回最多ef个结果（堆顶为最差的结果）
+     */
+    private static PriorityQueue<Hit> searchLayer(FloatBuffer vectors, int dimensions, int[][][] links, float[] query,
+                                                  Hit entry, int ef, int level, BitSet visited) {
+        PriorityQueue<Hit> candidates = new PriorityQueue<>(BEST_FIRST);
+        PriorityQueue<Hit> results = new PriorityQueue<>(WORST_FIRST);
+        visited.set(entry.id());
+        candidates.add(entry);
+        results.add(entry);
+        while (!candidates.isEmpty()) {
+            Hit candidate = candidates.poll();
+            if (results.size() >= ef && candidate.score() < results.peek().score()) {
+                break;
+            }
+            for (int neighbor : neighbors(links, candidate.id(), level)) {
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float score = similarity(vectors, dimensions, query, neighbor);
+                if (results.size() < ef || score > results.peek().score()) {
+                    Hit hit = new Hit(neighbor, score);
+                    candidates.add(hit);
+                    results.add(hit);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+    
+    private static int[] neighbors(int[][][] links, int node, int level) {
+        int[][] levels = links[node];
+        return level < levels.length ? levels[level] : NO_LINKS;
+    }
+    
+    private static float similarity(FloatBuffer vectors, int dimensions, float[] query, int node) {
+        int base = node * dimensions;
+        // 四路累加减少浮点加法的依赖链
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < dimensions; i += 4) {
+            s0 += query[i] * vectors.get(base + i);
+            s1 += query[i + 1] * vectors.get(base + i + 1);
+            s2 += query[i + 2] * vectors.get(base + i + 2);
+            s3 += query[i + 3] * vectors.get(base + i + 3);
+        }
+        for (; i < dimensions; i++) {
+            s0 += query[i] * vectors.get(base + i);
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+    
+    private static float similarity(FloatBuffer vectors, int dimensions, int a, int b) {
+        int baseA = a * dimensions;
+        int baseB = b * dimensions;
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < dimensions; i += 4) {
+            s0 += vectors.get(baseA + i) * vectors.get(baseB + i);
+            s1 += vectors.get(baseA + i + 1) * vectors.get(baseB + i + 1);
+            s2 += vectors.get(baseA + i + 2) * vectors.get(baseB + i + 2);
+            s3 += vectors.get(baseA + i + 3) * vectors.get(baseB + i + 3);
+        }
+        for (; i < dimensions; i++) {
+            s0 += vectors.get(baseA + i) * vectors.get(baseB + i);
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+    
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm > 0) {
+            float scale = (float) (1.0 / Math.sqrt(norm));
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] *= scale;
+            }
+        }
+        return vector;
+    }
+    
+    /**
+     * 索引构建器，容量在创建时确定，向量按加入顺序编号；非线程安全
+     */
+    public static final class Builder {
+        
+        private final int dimensions;
+        private final int capacity;
+        private final int maxLinks;
+        private final int maxLinksLevel0;
+        private final int efConstruction;
+        private final double levelMultiplier;
+        private final SplittableRandom random = new SplittableRandom(42);
+        private final FloatBuffer vectors;
+        private final int[][][] links;
+        private int size;
+        private int entryPoint = -1;
+        private int maxLevel;
+        
+        /**
+         * @param m              每个节点在上层保留的邻居数，第0层保留2m个
+         * @param efConstruction 插入时的候选集大小
+         */
+        public Builder(int dimensions, int capacity, int m, int efConstruction) {
+            this.dimensions = dimensions;
+            this.capacity = capacity;
+            this.maxLinks = Math.max(2, m);
+            this.maxLinksLevel0 = this.maxLinks * 2;
+            this.efConstruction = Math.max(efConstruction, this.maxLinks);
+            this.levelMultiplier = 1.0 / Math.log(this.maxLinks);
+            this.vectors = ByteBuffer.allocateDirect(Math.multiplyExact(Math.multiplyExact(capacity, dimensions), Float.BYTES))
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+            this.links = new int[capacity][][];
+        }
+        
+        /**
+         * 加入一个向量，返回它在索引中的编号
+         */
+        public int add(float[] vector) {
+            if (size >= capacity) {
+                throw new IllegalStateException("索引容量已满: " + capacity);
+            }
+            if (vector.length != dimensions) {
+                throw new IllegalArgumentException("向量维度不匹配: " + vector.length + " != " + dimensions);
+            }
+            float[] normalized = normalize(vector.clone());
+            int id = size++;
+            vectors.put(id * dimensions, normalized);
+            
+            int level = randomLevel();
+            links[id] = new int[level + 1][];
+            Arrays.fill(links[id], NO_LINKS);
+            if (entryPoint < 0) {
+                entryPoint = id;
+                maxLevel = level;
+                return id;
+            }
+            
+            Hit entry = greedyDescent(vectors, dimensions, links, normalized, entryPoint, maxLevel, level);
+            for (int layer = Math.min(level, maxLevel); layer >= 0; layer--) {
+                PriorityQueue<Hit> candidates = searchLayer(vectors, dimensions, links, normalized, entry,
+                        efConstruction, layer, new BitSet(size));
+                List<Hit> nearest = new ArrayList<>(candidates);
+                nearest.sort(BEST_FIRST);
+                int limit = layer == 0 ? maxLinksLevel0 : maxLinks;
+                int[] selected = selectNeighbors(nearest, limit);
+                links[id][layer] = selected;
+                for (int neighbor : selected) {
+                    connect(neighbor, id, layer, limit);
+                }
+                entry = nearest.get(0);
+            }
+            if (level > maxLevel) {
+                entryPoint = id;
+                maxLevel = level;
+            }
+            return id;
+        }
+        
+        /**
+         * 启发式选择邻居：按相似度从高到低考察候选，只保留与已选邻居都不如与目标相似的候选，
+         * 使邻居分布在不同方向上，保持图的连通性；数量不足时再用被跳过的候选补齐
+         *
+         * @param candidates 按与目标的相似度从高到低排序的候选
+         */
+        private int[] selectNeighbors(List<Hit> candidates, int limit) {
+            int[] selected = new int[Math.min(limit, candidates.size())];
+            boolean[] taken = new boolean[candidates.size()];
+            int count = 0;
+            for (int i = 0; i < candidates.size() && count < selected.length; i++) {
+                Hit candidate = candidates.get(i);
+                boolean diverse = true;
+                for (int j = 0; j < count && diverse; j++) {
+                    diverse = similarity(vectors, dimensions, candidate.id(), selected[j]) < candidate.score();
+                }
+                if (diverse) {
+                    selected[count++] = candidate.id();
+                    taken[i] = true;
+                }
+            }
+            for (int i = 0; i < candidates.size() && count < selected.length; i++) {
+                if (!taken[i]) {
+                    selected[count++] = candidates.get(i).id();
+                }
+            }
+            return selected;
+        }
+        
+        /**
+         * 建立反向连接，邻居数超过上限时按启发式重新选择
+         */
+        private void connect(int node, int neighbor, int level, int limit) {
+            int[] current = links[node][level];
+            if (current.length < limit) {
+                int[] updated = Arrays.copyOf(current, current.length + 1);
+                updated[current.length] = neighbor;
+                links[node][level] = updated;
+                return;
+            }
+            List<Hit> candidates = new ArrayList<>(current.length + 1);
+            for (int other : current) {
+                candidates.add(new Hit(other, similarity(vectors, dimensions, node, other)));
+            }
+            candidates.add(new Hit(neighbor, similarity(vectors, dimensions, node, neighbor)));
+            candidates.sort(BEST_FIRST);
+            links[node][level] = selectNeighbors(candidates, limit);
+        }
+        
+        private int randomLevel() {
+            double uniform = 1.0 - random.nextDouble();
+            return Math.min(MAX_LEVEL, (int) (-Math.log(uniform) * levelMultiplier));
+        }
+        
+        public HnswIndex build() {
+            int[][][] built = size == capacity ? links : Arrays.copyOf(links, size);
+            return new HnswIndex(dimensions, size, vectors, built, Math.max(entryPoint, 0), maxLevel);
+        }
+    }
+}
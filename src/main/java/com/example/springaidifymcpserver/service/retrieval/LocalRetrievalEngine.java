@@ -0,0 +1,338 @@
+package com.example.springaidifymcpserver.service.retrieval;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * 默认的进程内检索引擎
+ * <p>
+ * 数据集根目录下的每个子目录是一个数据集。导入时每个源文件生成一个索引段（片段、向量和BM25倒排表），
+ * 保存在根目录的 .index 目录下；源文件内容未变时复用已有的段，只有新增或修改的文件需要重新分片和生成向量。
+ * 所有段的向量再合并构建一个HNSW索引（向量存放在堆外）。
+ * <p>
+ * 导入和重建在单独的后台线程中进行，新索引构建完成后整体替换旧索引，查询不会被阻塞，
+ * 重建期间继续使用旧索引。开启监听时，数据集文件变化后自动重建对应的数据集。
+ * <p>
+ * 检索方式由节点的retrievalMode决定：向量检索、BM25关键词检索，或两者的结果按倒数排名融合（RRF）。
+ */
+@Component
+@Slf4j
+public class LocalRetrievalEngine implements RetrievalEngine {
+
+    private static final String INDEX_DIRECTORY = ".index";
+    /** 融合前每种检索方式取回的候选数是topK的倍数 */
+    private static final int CANDIDATE_FACTOR = 4;
+    
+    private final EmbeddingBatcher embeddingBatcher;
+    private final boolean enabled;
+    private final String datasetsPath;
+    private final boolean watch;
+    private final int chunkSize;
+    private final int defaultTopK;
+    private final double defaultScoreThreshold;
+    private final RetrievalMode defaultMode;
+    private final int rrfK;
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+    private final Map<String, DatasetIndex> datasets = new ConcurrentHashMap<>();
+    private final Set<String> pendingRebuilds = ConcurrentHashMap.newKeySet();
+    private Path root;
+    private ExecutorService ingestExecutor;
+    private DatasetWatcher watcher;
+    
+    public LocalRetrievalEngine(EmbeddingBatcher embeddingBatcher,
+                                @Value("${mcp.retrieval.enabled:true}") boolean enabled,
+                                @Value("${mcp.retrieval.datasets-path:}") String datasetsPath,
+                                @Value("${mcp.retrieval.watch:true}") boolean watch,
+                                @Value("${mcp.retrieval.chunk-size:500}") int chunkSize,
+                                @Value("${mcp.retrieval.top-k:4}") int defaultTopK,
+                                @Value("${mcp.retrieval.score-threshold:0.0}") double defaultScoreThreshold,
+                                @Value("${mcp.retrieval.mode:hybrid}") String defaultMode,
+                                @Value("${mcp.retrieval.rrf-k:60}") int rrfK,
+                                @Value("${mcp.retrieval.hnsw.m:16}") int m,
+                                @Value("${mcp.retrieval.hnsw.ef-construction:200}") int efConstruction,
+                                @Value("${mcp.retrieval.hnsw.ef-search:64}") int efSearch) {
+        this.embeddingBatcher = embeddingBatcher;
+        this.enabled = enabled;
+        this.datasetsPath = datasetsPath;
+        this.watch = watch;
+        this.chunkSize = Math.max(50, chunkSize);
+        this.defaultTopK = Math.max(1, defaultTopK);
+        this.defaultScoreThreshold = defaultScoreThreshold;
+        this.defaultMode = Objects.requireNonNullElse(RetrievalMode.parse(defaultMode), RetrievalMode.HYBRID);
+        this.rrfK = Math.max(1, rrfK);
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+    }
+    
+    @PostConstruct
+    public void init() {
+        if (!enabled || datasetsPath == null || datasetsPath.isBlank()) {
+            log.info("未配置数据集目录，知识检索节点将返回空结果");
+            return;
+        }
+        root = Paths.get(datasetsPath).toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) {
+            log.warn("数据集目录不存在: {}", root);
+            return;
+        }
+        ingestExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "dataset-ingest");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (Stream<Path> children = Files.list(root)) {
+            children.filter(Files::isDirectory)
+                    .map(directory -> directory.getFileName().toString())
+                    .filter(datasetId -> !datasetId.startsWith("."))
+                    .sorted()
+                    .forEach(this::scheduleRebuild);
+        } catch (IOException e) {
+            log.error("无法读取数据集目录 {}: {}", root, e.getMessage());
+        }
+        if (watch) {
+            try {
+                watcher = new DatasetWatcher(root, this::scheduleRebuild);
+                log.info("已开启数据集目录监听: {}", root);
+            } catch (IOException e) {
+                log.warn("无法监听数据集目录 {}: {}", root, e.getMessage());
+            }
+        }
+    }
+    
+    @PreDestroy
+    public void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
+        if (ingestExecutor != null) {
+            ingestExecutor.shutdownNow();
+        }
+    }
+    
+    /**
+     * 安排重建数据集，尚未开始的重复请求会被合并
+     */
+    void scheduleRebuild(String datasetId) {
+        if (ingestExecutor != null && pendingRebuilds.add(datasetId)) {
+            ingestExecutor.execute(() -> {
+                pendingRebuilds.remove(datasetId);
+                rebuild(datasetId);
+            });
+        }
+    }
+    
+    /**
+     * 重建一个数据集的索引，完成后替换旧索引；所有文件都未变化时保留旧索引
+     */
+    void rebuild(String datasetId) {
+        Path directory = root.resolve(datasetId);
+        Path indexDirectory = root.resolve(INDEX_DIRECTORY).resolve(datasetId);
+        long startTime = System.nanoTime();
+        try {
+            if (!Files.isDirectory(directory)) {
+                if (datasets.remove(datasetId) != null) {
+                    log.info("数据集已删除: {}", datasetId);
+                }
+                deleteStaleSegments(indexDirectory, Set.of());
+                return;
+            }
+            DatasetIndex current = datasets.get(datasetId);
+            Map<String, DatasetSegment> previous = current != null ? current.segmentsBySource() : Map.of();
+            List<DatasetSegment> segments = new ArrayList<>();
+            Set<Path> segmentFiles = new HashSet<>();
+            int reused = 0;
+            int embedded = 0;
+            for (Path file : DatasetFiles.list(directory)) {
+                String source = directory.relativize(file).toString().replace('\\', '/');
+                byte[] content = Files.readAllBytes(file);
+                byte[] hash = sha256(content);
+                Path segmentFile = indexDirectory.resolve(segmentName(source));
+                segmentFiles.add(segmentFile);
+                
+                DatasetSegment segment = previous.get(source);
+                if (segment != null && segment.hasContentHash(hash)) {
+                    reused++;
+                } else {
+                    segment = DatasetSegment.open(segmentFile, hash, chunkSize);
+                    if (segment == null) {
+                        List<String> chunks = DatasetFiles.split(new String(content, StandardCharsets.UTF_8), chunkSize);
+                        if (chunks.isEmpty()) {
+                            continue;
+                        }
+                        segment = DatasetSegment.create(segmentFile, source, hash, chunkSize, chunks, embeddingBatcher.embedAll(chunks));
+                        embedded += chunks.size();
+                    }
+                }
+                segments.add(segment);
+            }
+            
+            if (current != null && reused == current.segments().size() && reused == segments.size()) {
+                log.debug("数据集 {} 没有变化", datasetId);
+                return;
+            }
+            if (segments.isEmpty()) {
+                log.warn("数据集 {} 中没有可导入的 .txt 或 .md 文件", datasetId);
+                datasets.remove(datasetId);
+            } else {
+                DatasetIndex index = new DatasetIndex(datasetId, segments, m, efConstruction);
+                datasets.put(datasetId, index);
+                log.info("已构建数据集 {}: {} 个文件, {} 个片段（新生成向量 {} 个）, 耗时 {} ms",
+                        datasetId, segments.size(), index.size(), embedded, (System.nanoTime() - startTime) / 1_000_000);
+            }
+            deleteStaleSegments(indexDirectory, segmentFiles);
+        } catch (Exception e) {
+            log.error("构建数据集 {} 失败: {}", datasetId, e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * 删除源文件已不存在的索引段
+     */
+    private static void deleteStaleSegments(Path indexDirectory, Set<Path> inUse) throws IOException {
+        if (!Files.isDirectory(indexDirectory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(indexDirectory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().endsWith(DatasetSegment.SUFFIX) && !inUse.contains(file)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+    
+    private static String segmentName(String source) {
+        return HexFormat.of().formatHex(sha256(source.getBytes(StandardCharsets.UTF_8)), 0, 16) + DatasetSegment.SUFFIX;
+    }
+    
+    /**
+     * 已导入的数据集ID
+     */
+    public Collection<String> getDatasetIds() {
+        return List.copyOf(datasets.keySet());
+    }
+    
+    @Override
+    public Mono<List<RetrievedChunk>> retrieve(RetrievalQuery query) {
+        List<DatasetIndex> targets = query.datasetIds().stream()
+                .map(datasets::get)
+                .filter(Objects::nonNull)
+                .toList();
+        if (targets.isEmpty()) {
+            log.debug("数据集 {} 尚未导入，检索结果为空", query.datasetIds());
+            return Mono.just(List.of());
+        }
+        RetrievalMode mode = query.mode() != null ? query.mode() : defaultMode;
+        if (mode == RetrievalMode.KEYWORD) {
+            // 关键词检索只访问内存映射的倒排表，不涉及远程调用
+            return Mono.fromSupplier(() -> search(targets, query, mode, null));
+        }
+        // 查询向量经微批处理队列生成，与其他并发查询合并为一次嵌入调用
+        return Mono.fromFuture(() -> embeddingBatcher.embedQuery(query.query()))
+                .map(vector -> search(targets, query, mode, vector));
+    }
+    
+    /**
+     * 候选片段，dataset与id唯一确定一个片段
+     */
+    private record Candidate(DatasetIndex dataset, int id, double score) {
+        
+        Object key() {
+            return List.of(dataset.datasetId(), id);
+        }
+    }
+    
+    private List<RetrievedChunk> search(List<DatasetIndex> targets, RetrievalQuery query, RetrievalMode mode, float[] vector) {
+        int topK = query.topK() > 0 ? query.topK() : defaultTopK;
+        double scoreThreshold = query.scoreThreshold() != null ? query.scoreThreshold() : defaultScoreThreshold;
+        int limit = mode == RetrievalMode.HYBRID ? topK * CANDIDATE_FACTOR : topK;
+        
+        List<Candidate> semantic = new ArrayList<>();
+        List<Candidate> keyword = new ArrayList<>();
+        List<String> terms = mode != RetrievalMode.SEMANTIC ? Tokenizer.tokenize(query.query()) : List.of();
+        for (DatasetIndex dataset : targets) {
+            if (vector != null) {
+                for (DatasetIndex.Hit hit : dataset.vectorSearch(vector, limit, Math.max(efSearch, limit))) {
+                    if (hit.score() >= scoreThreshold) {
+                        semantic.add(new Candidate(dataset, hit.id(), hit.score()));
+                    }
+                }
+            }
+            for (DatasetIndex.Hit hit : dataset.keywordSearch(terms, limit)) {
+                keyword.add(new Candidate(dataset, hit.id(), hit.score()));
+            }
+        }
+        Comparator<Candidate> byScore = Comparator.comparingDouble(Candidate::score).reversed();
+        semantic.sort(byScore);
+        keyword.sort(byScore);
+        
+        List<Candidate> ranked = switch (mode) {
+            case SEMANTIC -> semantic;
+            case KEYWORD -> keyword;
+            case HYBRID -> fuse(List.of(semantic, keyword), limit);
+        };
+        return ranked.stream()
+                .limit(topK)
+                .map(candidate -> new RetrievedChunk(candidate.dataset().datasetId(),
+                        candidate.dataset().source(candidate.id()),
+                        candidate.dataset().content(candidate.id()),
+                        candidate.score()))
+                .toList();
+    }
+    
+    /**
+     * 倒数排名融合：每个片段的得分为它在各个排名列表中 1 / (k + 排名) 之和，排名从1开始，
+     * 每个列表只取前limit个。融合只看排名，不受余弦相似度与BM25得分量纲不同的影响。
+     */
+    private List<Candidate> fuse(List<List<Candidate>> rankings, int limit) {
+        Map<Object, Candidate> fused = new HashMap<>();
+        for (List<Candidate> ranking : rankings) {
+            for (int rank = 0; rank < Math.min(limit, ranking.size()); rank++) {
+                Candidate candidate = ranking.get(rank);
+                double score = 1.0 / (rrfK + rank + 1);
+                fused.merge(candidate.key(), new Candidate(candidate.dataset(), candidate.id(), score),
+                        (a, b) -> new Candidate(a.dataset(), a.id(), a.score() + b.score()));
+            }
+        }
+        List<Candidate> result = new ArrayList<>(fused.values());
+        result.sort(Comparator.comparingDouble(Candidate::score).reversed());
+        return result;
+    }
+    
+    private static byte[] sha256(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
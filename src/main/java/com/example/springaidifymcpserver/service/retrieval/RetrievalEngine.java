@@ -0,0 +1,16 @@
+package com.example.springaidifymcpserver.service.retrieval;
+
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * 知识检索引擎，知识检索节点通过它在节点配置的数据集中检索与查询相关的片段
+ */
+public interface RetrievalEngine {
+
+    /**
+     * 检索相关片段，结果按得分从高到低排序，不超过查询的topK
+     */
+    Mono<List<RetrievedChunk>> retrieve(RetrievalQuery query);
+}
@@ -0,0 +1,33 @@
+package com.example.springaidifymcpserver.service.retrieval;
+
+import java.util.Locale;
+
+/**
+ * 检索方式
+ */
+public enum RetrievalMode {
+
+    /** 仅向量检索 */
+    SEMANTIC,
+    /** 仅BM25关键词检索 */
+    KEYWORD,
+    /** 向量检索与关键词检索的结果按倒数排名融合（RRF） */
+    HYBRID;
+    
+    /**
+     * 解析节点的retrievalMode，兼容Dify的search_method取值（semantic_search、full_text_search、hybrid_search）
+     * <p>
+     * Dify的single、multiple表示多数据集的路由方式而不是检索方式，与无法识别的取值一样返回null，由引擎使用默认检索方式。
+     */
+    public static RetrievalMode parse(String value) {
+        if (value == null) {
+            return null;
+        }
+        return switch (value.trim().toLowerCase(Locale.ROOT).replace('-', '_')) {
+            case "semantic", "semantic_search", "vector" -> SEMANTIC;
+            case "keyword", "full_text", "full_text_search", "bm25" -> KEYWORD;
+            case "hybrid", "hybrid_search" -> HYBRID;
+            default -> null;
+        };
+    }
+}
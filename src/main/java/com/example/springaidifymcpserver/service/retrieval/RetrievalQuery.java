@@ -0,0 +1,41 @@
+package com.example.springaidifymcpserver.service.retrieval;
+
+import com.example.springaidifymcpserver.model.dify.WorkflowNode;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 检索请求
+ *
+ * @param datasetIds     检索的数据集
+ * @param query          查询文本
+ * @param topK           返回的片段数，小于等于0时使用引擎的默认值
+ * @param scoreThreshold 向量检索的相似度下限，为null时使用引擎的默认值
+ * @param mode           检索方式，为null时使用引擎的默认检索方式
+ */
+public record RetrievalQuery(List<String> datasetIds, String query, int topK, Double scoreThreshold, RetrievalMode mode) {
+
+    /**
+     * 根据知识检索节点的配置构建请求
+     * <p>
+     * top_k和score_threshold取自multipleRetrievalConfig，score_threshold只在score_threshold_enabled为true时生效，
+     * 兼容Dify导出的下划线命名和驼峰命名。检索方式取自retrievalMode，见{@link RetrievalMode#parse(String)}。
+     */
+    public static RetrievalQuery of(WorkflowNode node, String query) {
+        List<String> datasetIds = node.getDatasetIds() != null ? node.getDatasetIds() : List.of();
+        Map<String, Object> config = node.getMultipleRetrievalConfig() != null ? node.getMultipleRetrievalConfig() : Map.of();
+        int topK = option(config, "top_k", "topK") instanceof Number value ? value.intValue() : 0;
+        Double scoreThreshold = null;
+        if (Boolean.TRUE.equals(option(config, "score_threshold_enabled", "scoreThresholdEnabled"))
+                && option(config, "score_threshold", "scoreThreshold") instanceof Number value) {
+            scoreThreshold = value.doubleValue();
+        }
+        return new RetrievalQuery(datasetIds, query, topK, scoreThreshold, RetrievalMode.parse(node.getRetrievalMode()));
+    }
+    
+    private static Object option(Map<String, Object> config, String snakeCase, String camelCase) {
+        Object value = config.get(snakeCase);
+        return value != null ? value : config.get(camelCase);
+    }
+}
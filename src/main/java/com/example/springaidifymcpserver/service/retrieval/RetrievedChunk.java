@@ -0,0 +1,12 @@
+package com.example.springaidifymcpserver.service.retrieval;
+
+/**
+ * 检索到的文本片段
+ *
+ * @param datasetId 所属数据集
+ * @param source    片段来源文件（相对数据集目录的路径）
+ * @param content   片段内容
+ * @param score     相关性得分
+ */
+public record RetrievedChunk(String datasetId, String source, String content, double score) {
+}
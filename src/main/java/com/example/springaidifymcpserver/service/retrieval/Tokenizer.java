@@ -0,0 +1,99 @@
+package com.example.springaidifymcpserver.service.retrieval;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 关键词检索使用的分词器
+ * <p>
+ * 英文和数字按连续的字母数字切分并转为小写；由 - _ . / 连接的型号、产品编码（如 SKU-A12.3）
+ * 同时输出完整编码和各组成部分，使完整编码和部分编码都能命中。
+ * 中日韩文字没有分隔符，按相邻两个字的二元组切分，单字的片段输出单字。
+ */
+final class Tokenizer {
+
+    private Tokenizer() {
+    }
+    
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            int codePoint = text.codePointAt(i);
+            if (isIdeograph(codePoint)) {
+                int end = i;
+                while (end < length && isIdeograph(text.codePointAt(end))) {
+                    end += Character.charCount(text.codePointAt(end));
+                }
+                addBigrams(text.substring(i, end), tokens);
+                i = end;
+            } else if (Character.isLetterOrDigit(codePoint)) {
+                int end = i;
+                while (end < length) {
+                    int current = text.codePointAt(end);
+                    if (isWordCharacter(current)) {
+                        end += Character.charCount(current);
+                    } else if (isConnector(current) && end + 1 < length && isWordCharacter(text.codePointAt(end + 1))) {
+                        end++;
+                    } else {
+                        break;
+                    }
+                }
+                addWord(text.substring(i, end).toLowerCase(Locale.ROOT), tokens);
+                i = end;
+            } else {
+                i += Character.charCount(codePoint);
+            }
+        }
+        return tokens;
+    }
+    
+    private static void addWord(String word, List<String> tokens) {
+        tokens.add(word);
+        int start = 0;
+        boolean compound = false;
+        for (int i = 0; i <= word.length(); i++) {
+            if (i == word.length() || isConnector(word.charAt(i))) {
+                if (i < word.length()) {
+                    compound = true;
+                }
+                if (compound && i > start) {
+                    tokens.add(word.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+    }
+    
+    private static void addBigrams(String run, List<String> tokens) {
+        int[] codePoints = run.codePoints().toArray();
+        if (codePoints.length == 1) {
+            tokens.add(run);
+            return;
+        }
+        for (int i = 0; i + 1 < codePoints.length; i++) {
+            tokens.add(new String(codePoints, i, 2));
+        }
+    }
+    
+    private static boolean isWordCharacter(int codePoint) {
+        return Character.isLetterOrDigit(codePoint) && !isIdeograph(codePoint);
+    }
+    
+    private static boolean isConnector(int codePoint) {
+        return codePoint == '-' || codePoint == '_' || codePoint == '.' || codePoint == '/';
+    }
+    
+    private static boolean isIdeograph(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.springaidifymcpserver.config;
+
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.HttpResources;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.internal.shaded.reactor.pool.PoolAcquirePendingLimitException;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+/**
+ * 上游连接池、HTTP协议回退和连接预热，针对本地的HTTP/1.1桩服务验证
+ */
+class UpstreamHttpConfigurationTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    
+    private final UpstreamHttpConfiguration configuration = new UpstreamHttpConfiguration();
+    private final AtomicInteger serverConnections = new AtomicInteger();
+    private DisposableServer server;
+    private ConnectionProvider provider;
+    private String baseUrl;
+    
+    @BeforeEach
+    void startServer() {
+        server = HttpServer.create()
+                .port(0)
+                .protocol(HttpProtocol.HTTP11)
+                .doOnChannelInit((observer, channel, remoteAddress) -> serverConnections.incrementAndGet())
+                .route(routes -> routes
+                        .head("/", (request, response) -> response.status(HttpResponseStatus.NOT_FOUND).send())
+                        .get("/slow", (request, response) -> response.sendString(
+                                Mono.delay(Duration.ofMillis(300)).thenReturn("slow")))
+                        .get("/protocol", (request, response) -> response.sendString(
+                                Mono.just(request.version().text()))))
+                .bindNow();
+        baseUrl = "http://localhost:" + server.port();
+    }
+    
+    @AfterEach
+    void stopServer() {
+        if (provider != null) {
+            provider.disposeLater().block(TIMEOUT);
+        }
+        server.disposeNow();
+        HttpResources.reset();
+    }
+    
+    @Test
+    void poolBoundsConnectionsAndPendingAcquires() {
+        provider = provider(2, 1, false);
+        HttpClient client = client(provider, true);
+        
+        // 2个请求占满连接，1个排队等待，第4个超过排队上限被拒绝
+        List<Object> results = slowCalls(client, 4);
+        
+        assertEquals(3, results.stream().filter("slow"::equals).count(), "结果: " + results);
+        assertInstanceOf(PoolAcquirePendingLimitException.class,
+                results.stream().filter(Throwable.class::isInstance).findFirst().orElse(null));
+        assertEquals(2, serverConnections.get());
+    }
+    
+    @Test
+    void fallsBackToHttp11OnCleartextUpstream() {
+        provider = provider(10, 100, false);
+        
+        String protocol = client(provider, true).get().uri(baseUrl + "/protocol")
+                .responseContent().aggregate().asString()
+                .block(TIMEOUT);
+        
+        assertEquals("HTTP/1.1", protocol);
+    }
+    
+    @Test
+    void defaultClientsKeepTheirOwnPoolUnlessGlobalIsEnabled() {
+        provider = provider(1, 1, false);
+        
+        // 未开启时默认配置的客户端（Spring AI流式调用的路径）不受上游连接池的上限约束
+        assertEquals(3, slowCalls(HttpClient.create(), 3).stream().filter("slow"::equals).count());
+    }
+    
+    @Test
+    void defaultClientsShareTheUpstreamPoolWhenGlobalIsEnabled() {
+        provider = provider(1, 1, true);
+        
+        // 1个请求占用唯一的连接，1个排队，第3个超过排队上限被拒绝
+        List<Object> results = slowCalls(HttpClient.create(), 3);
+        
+        assertEquals(2, results.stream().filter("slow"::equals).count(), "结果: " + results);
+        assertEquals(1, serverConnections.get());
+    }
+    
+    @Test
+    void warmUpOpensConnectionsThatLaterCallsReuse() {
+        provider = provider(10, 100, false);
+        WebClient.Builder builder = WebClient.builder();
+        configuration.upstreamWebClientCustomizer(client(provider, true)).customize(builder);
+        UpstreamConnectionWarmer warmer = new UpstreamConnectionWarmer(builder, true, List.of(baseUrl, " "), 4,
+                TIMEOUT);
+        
+        // 共享连接池和默认配置的客户端各建立4条连接，桩服务对HEAD返回404，任何状态码都算预热成功
+        assertEquals(8L, warmer.warmUp().block(TIMEOUT));
+        assertEquals(8, serverConnections.get());
+        
+        List<WebClient> clients = List.of(builder.build(), WebClient.create());
+        Flux.fromIterable(clients)
+                .flatMap(client -> Flux.range(0, 4)
+                        .flatMap(i -> client.get().uri(baseUrl + "/protocol").retrieve().bodyToMono(String.class)))
+                .blockLast(TIMEOUT);
+        assertEquals(8, serverConnections.get());
+    }
+    
+    /**
+     * 并发发起慢请求，返回每个请求的响应内容或异常
+     */
+    private List<Object> slowCalls(HttpClient client, int count) {
+        return Flux.range(0, count)
+                .flatMap(i -> client.get().uri(baseUrl + "/slow").responseContent().aggregate().asString()
+                        .<Object>map(body -> body)
+                        .onErrorResume(Mono::just))
+                .collectList()
+                .block(TIMEOUT);
+    }
+    
+    private ConnectionProvider provider(int maxConnections, int pendingAcquireMaxCount, boolean global) {
+        return configuration.upstreamConnectionProvider(maxConnections, pendingAcquireMaxCount, TIMEOUT,
+                Duration.ofSeconds(60), Duration.ofMinutes(10), Duration.ofSeconds(30), global);
+    }
+    
+    private HttpClient client(ConnectionProvider provider, boolean http2) {
+        return configuration.upstreamHttpClient(provider, http2, Duration.ofSeconds(5), TIMEOUT);
+    }
+}
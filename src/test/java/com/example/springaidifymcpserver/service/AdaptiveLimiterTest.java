@@ -0,0 +1,70 @@
+package com.example.springaidifymcpserver.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 自适应并发上限在上游延迟变化时的收缩和回升
+ */
+class AdaptiveLimiterTest {
+
+    private static final long SLOW_CALL_NANOS = Duration.ofSeconds(30).toNanos();
+    
+    private final AdaptiveLimiter limiter = new AdaptiveLimiter(20, 2, 200, 0.9, 2.0, SLOW_CALL_NANOS);
+    
+    @Test
+    void growsWhileLatencyIsSteady() {
+        rounds(100, Duration.ofSeconds(1));
+        
+        assertTrue(limiter.getLimit() > 20, "上限: " + limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+    
+    @Test
+    void backsOffWhenLatencyRisesBelowSlowCallThreshold() {
+        rounds(100, Duration.ofSeconds(1));
+        int steady = limiter.getLimit();
+        
+        // 40轮内从1秒逐渐变慢到5秒，始终远低于30秒的慢调用阈值
+        int lowest = steady;
+        for (int i = 0; i < 40; i++) {
+            rounds(1, Duration.ofMillis(1000 + 4000L * i / 40));
+            lowest = Math.min(lowest, limiter.getLimit());
+        }
+        
+        assertTrue(lowest < steady / 2, "稳定上限: " + steady + ", 变慢期间最低上限: " + lowest);
+    }
+    
+    @Test
+    void recoversOnceLatencySettlesAtNewLevel() {
+        rounds(100, Duration.ofSeconds(1));
+        rounds(40, Duration.ofSeconds(5));
+        int backedOff = limiter.getLimit();
+        
+        rounds(1_000, Duration.ofSeconds(5));
+        
+        assertTrue(limiter.getLimit() > backedOff, "回退后上限: " + backedOff + ", 最终上限: " + limiter.getLimit());
+        assertTrue(limiter.getBaselineNanos() > Duration.ofSeconds(4).toNanos());
+    }
+    
+    /**
+     * 每轮并发发起15次调用，被接受的调用都以给定耗时成功
+     */
+    private void rounds(int count, Duration rtt) {
+        for (int round = 0; round < count; round++) {
+            int accepted = 0;
+            for (int i = 0; i < 15; i++) {
+                if (limiter.tryAcquire()) {
+                    accepted++;
+                }
+            }
+            for (int i = 0; i < accepted; i++) {
+                limiter.onSuccess(rtt.toNanos());
+            }
+        }
+    }
+}
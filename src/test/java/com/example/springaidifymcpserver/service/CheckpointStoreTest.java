@@ -0,0 +1,116 @@
+package com.example.springaidifymcpserver.service;
+
+import com.example.springaidifymcpserver.model.dify.CompiledWorkflow;
+import com.example.springaidifymcpserver.model.dify.DifyWorkflow;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 检查点的记录、重启后恢复，以及工作流变化和运行成功结束后不再恢复
+ */
+class CheckpointStoreTest {
+
+    private static final Map<String, Object> INPUTS = Map.of("query", "hi");
+    
+    @TempDir
+    Path directory;
+    private final List<CheckpointStore> stores = new ArrayList<>();
+    
+    @AfterEach
+    void close() throws IOException {
+        for (CheckpointStore store : stores) {
+            store.close();
+        }
+    }
+    
+    @Test
+    void failedRunResumesAfterRestart() throws IOException {
+        CompiledWorkflow workflow = workflow("回答");
+        CheckpointStore store = open();
+        store.open("r1", workflow, INPUTS).record("llm", "answer", null, List.of("end"));
+        store.close();
+        
+        CheckpointStore restarted = open();
+        
+        assertTrue(restarted.hasCheckpoint("r1", workflow, INPUTS));
+        CheckpointStore.NodeCheckpoint checkpoint = restarted.open("r1", workflow, INPUTS).get("llm");
+        assertEquals("answer", checkpoint.output());
+        assertEquals(List.of("end"), checkpoint.targets());
+        assertFalse(restarted.hasCheckpoint("r1", workflow, Map.of("query", "other")));
+    }
+    
+    @Test
+    void changedWorkflowDefinitionStartsFreshRun() {
+        CheckpointStore store = open();
+        store.open("r1", workflow("回答"), INPUTS).record("llm", "answer", null, List.of("end"));
+        
+        // 热更新后ID相同但定义不同的工作流
+        CompiledWorkflow reloaded = workflow("新的回答");
+        
+        assertFalse(store.hasCheckpoint("r1", reloaded, INPUTS));
+        assertNull(store.open("r1", reloaded, INPUTS).get("llm"));
+    }
+    
+    @Test
+    void completedRunIsNotReplayed() throws IOException {
+        CompiledWorkflow workflow = workflow("回答");
+        CheckpointStore store = open();
+        CheckpointStore.Run run = store.open("r1", workflow, INPUTS);
+        run.record("llm", "answer", null, List.of("end"));
+        run.complete();
+        
+        assertFalse(store.hasCheckpoint("r1", workflow, INPUTS));
+        assertEquals(0, store.open("r1", workflow, INPUTS).size());
+        store.close();
+        
+        // 结束标记在重启后同样生效，压缩时丢弃已结束运行的记录
+        CheckpointStore restarted = open();
+        assertFalse(restarted.hasCheckpoint("r1", workflow, INPUTS));
+        restarted.compact();
+        assertEquals(0, Files.size(directory.resolve("checkpoints.log")));
+    }
+    
+    private CheckpointStore open() {
+        CheckpointStore store = new CheckpointStore(directory.toString(), true, Duration.ofHours(1),
+                Duration.ofHours(1));
+        stores.add(store);
+        return store;
+    }
+    
+    private static CompiledWorkflow workflow(String answer) {
+        String yaml = """
+                app:
+                  mode: workflow
+                  name: checkpoint
+                workflow:
+                  graph:
+                    nodes:
+                    - id: start
+                      data:
+                        type: start
+                    - id: end
+                      data:
+                        type: answer
+                        answer: %s
+                    edges:
+                    - source: start
+                      target: end
+                """.formatted(answer);
+        return CompiledWorkflow.compile("checkpoint", new Yaml().loadAs(yaml, DifyWorkflow.class));
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.springaidifymcpserver.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 磁盘层恢复时跳过损坏的行，其余条目照常恢复
+ */
+class ClassifierCacheTest {
+
+    @TempDir
+    Path directory;
+    private ClassifierCache cache;
+    
+    @AfterEach
+    void close() {
+        if (cache != null) {
+            cache.close();
+        }
+    }
+    
+    @Test
+    void corruptedLinesAreSkippedIndividually() throws IOException {
+        long expiresAt = System.currentTimeMillis() + Duration.ofHours(1).toMillis();
+        Path disk = directory.resolve("classifier.log");
+        Files.writeString(disk, String.join("\n",
+                line(expiresAt, "q1", "class-1"),
+                "not-a-number\twf\tnode\tfp\tq2\tclass-2",
+                line(expiresAt, "q3", "class-3"),
+                // 写入中断留下的不完整最后一行，没有换行结尾
+                line(expiresAt, "q4", "cla")), StandardCharsets.UTF_8);
+        
+        cache = new ClassifierCache(true, 100, Duration.ofHours(1), disk.toString(), Duration.ofMinutes(10));
+        cache.init();
+        
+        assertEquals("class-1", cache.get(key("q1")));
+        assertNull(cache.get(key("q2")));
+        assertEquals("class-3", cache.get(key("q3")));
+        assertNull(cache.get(key("q4")));
+        // 恢复后立即压缩，磁盘文件只保留有效的条目
+        assertEquals(2, Files.readAllLines(disk, StandardCharsets.UTF_8).size());
+    }
+    
+    private static String line(long expiresAt, String query, String classId) {
+        return String.join("\t", List.of(Long.toString(expiresAt), "wf", "node", "fp", query, classId));
+    }
+    
+    private static ClassifierCache.Key key(String query) {
+        return new ClassifierCache.Key("wf", "node", "fp", query);
+    }
+}
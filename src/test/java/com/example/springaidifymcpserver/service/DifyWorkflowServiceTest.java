@@ -0,0 +1,79 @@
+package com.example.springaidifymcpserver.service;
+
+import com.example.springaidifymcpserver.model.dify.DifyWorkflow;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 启动时并行编译的工作流一次性发布，MCP函数名冲突按工作流ID确定；
+ * 从文件加载和通过addWorkflow添加的工作流都能取回编辑器模型
+ */
+class DifyWorkflowServiceTest {
+
+    @TempDir
+    Path directory;
+    
+    @Test
+    void initialLoadPublishesOneVersionAndResolvesCollisionsById() throws IOException {
+        // 三个文件使用相同的应用名，只有工作流ID最小的一个发布
+        for (String name : new String[] {"c.yml", "a.yml", "b.yml"}) {
+            Files.writeString(directory.resolve(name), workflow("Shared App"));
+        }
+        Files.writeString(directory.resolve("d.yml"), workflow("Other App"));
+        
+        DifyWorkflowService service = new DifyWorkflowService();
+        ReflectionTestUtils.setField(service, "workflowPath", directory.toString());
+        ReflectionTestUtils.setField(service, "watchEnabled", false);
+        ReflectionTestUtils.setField(service, "snapshotEnabled", false);
+        service.init();
+        
+        assertEquals(1, service.getVersion());
+        assertEquals(Map.of("shared_app", "a.yml", "other_app", "d.yml"), service.getCatalog().functionIndex());
+    }
+    
+    @Test
+    void editorModelIsAvailableForFileAndProgrammaticWorkflows() throws IOException {
+        Files.writeString(directory.resolve("file.yml"), workflow("From File"));
+        DifyWorkflowService service = new DifyWorkflowService();
+        ReflectionTestUtils.setField(service, "workflowPath", directory.toString());
+        ReflectionTestUtils.setField(service, "watchEnabled", false);
+        ReflectionTestUtils.setField(service, "snapshotEnabled", false);
+        service.init();
+        DifyWorkflow registered = new Yaml().loadAs(workflow("Registered"), DifyWorkflow.class);
+        
+        service.addWorkflow("registered", registered);
+        
+        assertEquals("From File", service.getWorkflow("file.yml").getApp().getName());
+        assertSame(registered, service.getWorkflow("registered"));
+        assertTrue(service.removeWorkflow("registered"));
+        assertNull(service.getWorkflow("registered"));
+        assertNull(service.getWorkflow("missing"));
+    }
+    
+    private static String workflow(String name) {
+        return """
+                app:
+                  mode: workflow
+                  name: %s
+                workflow:
+                  graph:
+                    nodes:
+                    - id: start
+                      data:
+                        type: start
+                    edges: []
+                """.formatted(name);
+    }
+}
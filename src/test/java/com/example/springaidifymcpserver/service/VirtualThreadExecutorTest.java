@@ -0,0 +1,138 @@
+package com.example.springaidifymcpserver.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 并发许可在两种执行模式下的上限和归还
+ * <p>
+ * 虚拟线程模式的测试标记为java21，只在 mvn -Pjava21 test（JDK 21及以上）时运行。
+ */
+class VirtualThreadExecutorTest {
+
+    /** Tomcat默认的最大请求线程数，平台线程池模式下的并发上限 */
+    private static final int PLATFORM_THREAD_LIMIT = 200;
+    
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peak = new AtomicInteger();
+    private VirtualThreadExecutor executor;
+    
+    @AfterEach
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+    
+    @Test
+    @Tag("java21")
+    void blockingLlmCallsScalePastPlatformThreadLimit() {
+        executor = virtualThreads(10_000);
+        int workflows = 2_000;
+        
+        long start = System.nanoTime();
+        runWorkflows(workflows, Duration.ofSeconds(1));
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+        
+        // 平台线程池需要 2000 / 200 = 10 轮，每轮1秒
+        assertTrue(peak.get() > PLATFORM_THREAD_LIMIT, "峰值并发: " + peak.get());
+        assertTrue(elapsed.compareTo(Duration.ofSeconds(5)) < 0, "耗时: " + elapsed);
+        assertEquals(10_000, executor.availablePermits());
+    }
+    
+    @Test
+    @Tag("java21")
+    void semaphoreBoundsConcurrentWorkflows() {
+        executor = virtualThreads(50);
+        
+        runWorkflows(500, Duration.ofMillis(20));
+        
+        assertTrue(peak.get() <= 50, "峰值并发: " + peak.get());
+        assertEquals(50, executor.availablePermits());
+    }
+    
+    @Test
+    @Tag("java21")
+    void cancelledWorkflowsReturnTheirPermits() {
+        executor = virtualThreads(1);
+        
+        // 一个执行中、一个排队中的工作流都被取消
+        Disposable running = executor.execute(Mono::never).subscribe();
+        Disposable queued = executor.execute(Mono::never).subscribe();
+        running.dispose();
+        queued.dispose();
+        
+        assertEquals("done", executor.execute(() -> Mono.just("done")).block(Duration.ofSeconds(5)));
+        assertEquals(1, executor.availablePermits());
+    }
+    
+    @Test
+    void permitsBoundReactiveWorkflowsWhenDisabled() {
+        executor = new VirtualThreadExecutor(false, 50);
+        
+        assertFalse(executor.isEnabled());
+        Flux.range(0, 500)
+                .flatMap(i -> executor.execute(() -> Mono.delay(Duration.ofMillis(5)).doOnSubscribe(s -> enter())
+                        .doOnTerminate(inFlight::decrementAndGet)), 500)
+                .blockLast(Duration.ofSeconds(30));
+        
+        assertEquals(50, peak.get());
+        assertEquals(50, executor.availablePermits());
+    }
+    
+    @Test
+    void cancelledReactiveWorkflowsReturnTheirPermits() {
+        executor = new VirtualThreadExecutor(false, 1);
+        
+        // 一个执行中、多个排队中的工作流都被取消
+        Disposable running = executor.execute(Mono::never).subscribe();
+        Disposable queued = Flux.range(0, 100)
+                .flatMap(i -> executor.execute(Mono::never), 100)
+                .subscribe();
+        running.dispose();
+        queued.dispose();
+        
+        assertEquals("done", executor.execute(() -> Mono.just("done")).block(Duration.ofSeconds(5)));
+        assertEquals(1, executor.availablePermits());
+    }
+    
+    private static VirtualThreadExecutor virtualThreads(int maxConcurrency) {
+        VirtualThreadExecutor executor = new VirtualThreadExecutor(true, maxConcurrency);
+        assertTrue(executor.isEnabled(), "虚拟线程需要Java 21，当前版本: " + Runtime.version());
+        return executor;
+    }
+    
+    private void enter() {
+        peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+    }
+    
+    /**
+     * 同时发起多个工作流，每个工作流执行一次阻塞指定时间的LLM调用
+     */
+    private void runWorkflows(int count, Duration llmLatency) {
+        Flux.range(0, count)
+                .flatMap(i -> executor.execute(() -> executor.call(() -> blockingLlmCall(llmLatency))), count)
+                .blockLast(Duration.ofSeconds(30));
+    }
+    
+    private String blockingLlmCall(Duration latency) throws InterruptedException {
+        enter();
+        try {
+            Thread.sleep(latency.toMillis());
+            return "answer";
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+}
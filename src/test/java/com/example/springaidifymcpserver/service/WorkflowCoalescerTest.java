@@ -0,0 +1,87 @@
+package com.example.springaidifymcpserver.service;
+
+import com.example.springaidifymcpserver.model.dify.CompiledWorkflow;
+import com.example.springaidifymcpserver.model.dify.DifyWorkflow;
+import org.junit.jupiter.api.Test;
+import org.yaml.snakeyaml.Yaml;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 相同调用共享一次执行，调用方全部退出后取消共享执行
+ */
+class WorkflowCoalescerTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final Map<String, Object> ARGUMENTS = Map.of("query", "hi");
+    
+    private final WorkflowCoalescer coalescer = new WorkflowCoalescer(true, Set.of("*"));
+    private final CompiledWorkflow workflow = CompiledWorkflow.compile("wf", new Yaml().loadAs(
+            "workflow:\n  graph:\n    nodes:\n    - id: start\n      data:\n        type: start\n    edges: []\n",
+            DifyWorkflow.class));
+    private final AtomicInteger started = new AtomicInteger();
+    private final AtomicInteger cancelled = new AtomicInteger();
+    private final Sinks.One<Map<String, Object>> result = Sinks.one();
+    
+    @Test
+    void identicalCallsShareOneExecution() {
+        Mono<Map<String, Object>> first = execute(null);
+        Mono<Map<String, Object>> second = execute(null);
+        Disposable a = first.subscribe();
+        Mono<Map<String, Object>> shared = second.cache();
+        shared.subscribe();
+        
+        result.tryEmitValue(Map.of("answer", "ok"));
+        
+        assertEquals(Map.of("answer", "ok"), shared.block(TIMEOUT));
+        assertEquals(1, started.get());
+        assertEquals(1, coalescer.getCoalescedCount());
+        a.dispose();
+        assertEquals(0, cancelled.get());
+    }
+    
+    @Test
+    void executionSurvivesWhileAnyCallerWaits() {
+        Disposable first = execute(null).subscribe();
+        Mono<Map<String, Object>> second = execute(null).cache();
+        second.subscribe();
+        
+        first.dispose();
+        result.tryEmitValue(Map.of("answer", "ok"));
+        
+        assertEquals(0, cancelled.get());
+        assertEquals(Map.of("answer", "ok"), second.block(TIMEOUT));
+    }
+    
+    @Test
+    void lastCallerLeavingCancelsTheExecution() {
+        Disposable first = execute(null).subscribe();
+        // 第二个调用方的截止时间先到期
+        Mono<Map<String, Object>> second = execute(Deadline.after(Duration.ofMillis(50)));
+        
+        assertThrows(DeadlineExceededException.class, () -> second.block(TIMEOUT));
+        assertEquals(0, cancelled.get());
+        first.dispose();
+        
+        assertEquals(1, cancelled.get());
+        // 取消后相同的调用重新发起执行，不会合并到已取消的执行
+        execute(null).subscribe().dispose();
+        assertEquals(2, started.get());
+    }
+    
+    private Mono<Map<String, Object>> execute(Deadline deadline) {
+        return coalescer.execute(workflow, ARGUMENTS, deadline, () -> {
+            started.incrementAndGet();
+            return result.asMono().doOnCancel(cancelled::incrementAndGet);
+        });
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.springaidifymcpserver.service;
+
+import com.example.springaidifymcpserver.model.dify.CompiledWorkflow;
+import com.example.springaidifymcpserver.model.dify.DifyWorkflow;
+import org.junit.jupiter.api.Test;
+import org.yaml.snakeyaml.Yaml;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * DAG调度在长链、跳过传播、并行度上限、取消和失败时的行为
+ */
+class WorkflowRunTest {
+
+    /** 递归调度时每个节点占用十几个栈帧，这个长度足以让默认线程栈溢出 */
+    private static final int CHAIN_LENGTH = 20_000;
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    
+    private final AtomicInteger executed = new AtomicInteger();
+    
+    @Test
+    void synchronouslyCompletingChainDoesNotGrowTheStack() {
+        CompiledWorkflow workflow = chain(CHAIN_LENGTH);
+        
+        new WorkflowRun(workflow, 4, node -> {
+            executed.incrementAndGet();
+            return Mono.just(downstream(workflow, node.getId()));
+        }).execute("n0").block(TIMEOUT);
+        
+        assertEquals(CHAIN_LENGTH, executed.get());
+    }
+    
+    @Test
+    void skippedChainIsPropagatedIteratively() {
+        CompiledWorkflow workflow = chain(CHAIN_LENGTH);
+        
+        // 起始节点不激活任何下游，其余节点全部被跳过
+        new WorkflowRun(workflow, 4, node -> {
+            executed.incrementAndGet();
+            return Mono.just(Set.<String>of());
+        }).execute("n0").block(TIMEOUT);
+        
+        assertEquals(1, executed.get());
+    }
+    
+    @Test
+    void cancellationDisposesOnlyRunningNodes() {
+        CompiledWorkflow workflow = fanOut(10);
+        AtomicInteger cancelled = new AtomicInteger();
+        
+        Disposable run = new WorkflowRun(workflow, 4, node -> {
+            executed.incrementAndGet();
+            if (node.getId().equals("start")) {
+                return Mono.just(downstream(workflow, "start"));
+            }
+            return Mono.<Collection<String>>never().doOnCancel(cancelled::incrementAndGet);
+        }).execute("start").subscribe();
+        run.dispose();
+        
+        // 起始节点和并行度上限内的4个分支执行过，只有4个分支仍在执行并被取消
+        assertEquals(5, executed.get());
+        assertEquals(4, cancelled.get());
+    }
+    
+    @Test
+    void nodeFailureCancelsSiblingsAndFailsTheRun() {
+        CompiledWorkflow workflow = fanOut(3);
+        AtomicInteger cancelled = new AtomicInteger();
+        IllegalStateException failure = new IllegalStateException("节点失败");
+        
+        Mono<Void> run = new WorkflowRun(workflow, 4, node -> switch (node.getId()) {
+            case "start" -> Mono.just(downstream(workflow, "start"));
+            case "b2" -> Mono.delay(Duration.ofMillis(50)).then(Mono.error(failure));
+            default -> Mono.<Collection<String>>never().doOnCancel(cancelled::incrementAndGet);
+        }).execute("start");
+        
+        assertSame(failure, assertThrows(IllegalStateException.class, () -> run.block(TIMEOUT)));
+        assertEquals(2, cancelled.get());
+    }
+    
+    private static Set<String> downstream(CompiledWorkflow workflow, String nodeId) {
+        Set<String> targets = new HashSet<>();
+        workflow.getEdgesFrom(nodeId).forEach(edge -> targets.add(edge.getTarget()));
+        return targets;
+    }
+    
+    /**
+     * n0 -> n1 -> ... 的线性工作流
+     */
+    private static CompiledWorkflow chain(int length) {
+        StringBuilder nodes = new StringBuilder();
+        StringBuilder edges = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            nodes.append(node("n" + i, i == 0 ? "start" : "code"));
+            if (i > 0) {
+                edges.append(edge("n" + (i - 1), "n" + i));
+            }
+        }
+        return compile(nodes, edges);
+    }
+    
+    /**
+     * start同时连接到b0..b(n-1)的工作流
+     */
+    private static CompiledWorkflow fanOut(int branches) {
+        StringBuilder nodes = new StringBuilder(node("start", "start"));
+        StringBuilder edges = new StringBuilder();
+        for (int i = 0; i < branches; i++) {
+            nodes.append(node("b" + i, "code"));
+            edges.append(edge("start", "b" + i));
+        }
+        return compile(nodes, edges);
+    }
+    
+    private static String node(String id, String type) {
+        return "    - id: " + id + "\n      data:\n        type: " + type + "\n";
+    }
+    
+    private static String edge(String source, String target) {
+        return "    - source: " + source + "\n      target: " + target + "\n";
+    }
+    
+    private static CompiledWorkflow compile(CharSequence nodes, CharSequence edges) {
+        String yaml = "workflow:\n  graph:\n    nodes:\n" + nodes + "    edges:\n" + edges;
+        return CompiledWorkflow.compile("run", new Yaml().loadAs(yaml, DifyWorkflow.class));
+    }
+}
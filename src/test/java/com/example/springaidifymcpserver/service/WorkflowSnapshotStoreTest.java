@@ -0,0 +1,87 @@
+package com.example.springaidifymcpserver.service;
+
+import com.example.springaidifymcpserver.model.dify.CompiledWorkflow;
+import com.example.springaidifymcpserver.model.dify.DifyWorkflow;
+import com.example.springaidifymcpserver.model.dify.WorkflowDefinition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 快照保存执行模型，命中时不解析YAML，编译结果与直接解析YAML一致
+ */
+class WorkflowSnapshotStoreTest {
+
+    private static final String YAML = """
+            app:
+              mode: workflow
+              name: snapshot
+            workflow:
+              graph:
+                nodes:
+                - id: start
+                  position:
+                    x: 10
+                    y: 20
+                  data:
+                    type: start
+                    selected: true
+                    variables:
+                    - variable: topic
+                      type: text-input
+                      required: true
+                - id: end
+                  data:
+                    type: answer
+                    answer: "{{#start.topic#}}"
+                edges:
+                - source: start
+                  target: end
+            """;
+    
+    @TempDir
+    Path directory;
+    private final AtomicInteger parsed = new AtomicInteger();
+    
+    @Test
+    void snapshotHitSkipsYamlAndCompilesToTheSamePlan() throws IOException {
+        Path file = directory.resolve("wf.yml");
+        Files.writeString(file, YAML, StandardCharsets.UTF_8);
+        WorkflowSnapshotStore store = new WorkflowSnapshotStore(true);
+        
+        CompiledWorkflow fromYaml = CompiledWorkflow.compile("wf", store.load(file, this::parse));
+        CompiledWorkflow fromSnapshot = CompiledWorkflow.compile("wf", store.load(file, this::parse));
+        
+        assertEquals(1, parsed.get());
+        assertEquals(fromYaml.getContentHash(), fromSnapshot.getContentHash());
+        assertEquals(fromYaml.getInputSchema().getSchema(), fromSnapshot.getInputSchema().getSchema());
+        assertEquals(fromYaml.getTopologicalOrder(), fromSnapshot.getTopologicalOrder());
+        assertEquals(fromYaml.getSlot("start.topic"), fromSnapshot.getSlot("start.topic"));
+    }
+    
+    @Test
+    void changedYamlInvalidatesSnapshot() throws IOException {
+        Path file = directory.resolve("wf.yml");
+        Files.writeString(file, YAML, StandardCharsets.UTF_8);
+        WorkflowSnapshotStore store = new WorkflowSnapshotStore(true);
+        store.load(file, this::parse);
+        
+        Files.writeString(file, YAML.replace("name: snapshot", "name: changed"), StandardCharsets.UTF_8);
+        
+        assertEquals("changed", store.load(file, this::parse).getName());
+        assertEquals(2, parsed.get());
+    }
+    
+    private WorkflowDefinition parse(byte[] content) {
+        parsed.incrementAndGet();
+        return WorkflowDefinition.of(new Yaml().loadAs(new String(content, StandardCharsets.UTF_8), DifyWorkflow.class));
+    }
+}
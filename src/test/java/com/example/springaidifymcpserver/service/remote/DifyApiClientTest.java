@@ -0,0 +1,227 @@
+package com.example.springaidifymcpserver.service.remote;
+
+import com.example.springaidifymcpserver.model.dify.CompiledWorkflow;
+import com.example.springaidifymcpserver.model.dify.DifyWorkflow;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.yaml.snakeyaml.Yaml;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 针对本地模拟的Dify服务验证流式运行、错误事件和取消时的停止请求
+ */
+class DifyApiClientTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<JsonNode> requestBodies = new CopyOnWriteArrayList<>();
+    private final List<String> authorizations = new CopyOnWriteArrayList<>();
+    private final CompletableFuture<String> stopped = new CompletableFuture<>();
+    private DisposableServer server;
+    
+    @AfterEach
+    void stopServer() {
+        if (server != null) {
+            server.disposeNow();
+        }
+    }
+    
+    @Test
+    void streamsChatAnswerSplitAcrossBuffers() {
+        // CRLF行尾、多行data和中文回答，响应按3字节切分发送
+        DifyApiClient client = client(sliced(3,
+                ": ping\r\n\r\n",
+                "data: {\"event\":\"workflow_started\",\"task_id\":\"t1\"}\r\n\r\n",
+                "data: {\"event\":\"message\",\"task_id\":\"t1\",\r\ndata: \"answer\":\"你好，\"}\r\n\r\n",
+                "event: message\r\ndata: {\"event\":\"message\",\"task_id\":\"t1\",\"answer\":\"世界\"}\r\n\r\n",
+                "data: {\"event\":\"message_end\",\"task_id\":\"t1\"}"));
+        List<String> chunks = new ArrayList<>();
+        
+        String answer = client.run(workflow("chat-app", "advanced-chat"), Map.of("query", "hi", "channel", "app"),
+                chunks::add).block(TIMEOUT);
+        
+        assertEquals("你好，世界", answer);
+        assertEquals(List.of("你好，", "世界"), chunks);
+        JsonNode body = requestBodies.get(0);
+        assertEquals("hi", body.path("query").asText());
+        assertFalse(body.path("inputs").has("query"));
+        assertEquals("app", body.path("inputs").path("channel").asText());
+        assertEquals("streaming", body.path("response_mode").asText());
+        assertEquals("Bearer chat-key", authorizations.get(0));
+    }
+    
+    @Test
+    void returnsWorkflowOutputsWhenNothingIsStreamed() {
+        DifyApiClient client = client(sliced(5,
+                "data: {\"event\":\"workflow_started\",\"task_id\":\"t1\"}\n\n",
+                "data: {\"event\":\"workflow_finished\",\"task_id\":\"t1\","
+                        + "\"data\":{\"status\":\"succeeded\",\"outputs\":{\"result\":\"完成\"}}}\n\n"));
+        List<String> chunks = new ArrayList<>();
+        
+        String answer = client.run(workflow("wf", "workflow"), Map.of("query", "hi"), chunks::add).block(TIMEOUT);
+        
+        assertEquals("完成", answer);
+        assertEquals(List.of("完成"), chunks);
+        assertEquals("hi", requestBodies.get(0).path("inputs").path("query").asText());
+        assertEquals("Bearer default-key", authorizations.get(0));
+    }
+    
+    @Test
+    void errorEventFailsTheRun() {
+        DifyApiClient client = client(sliced(64,
+                "data: {\"event\":\"workflow_started\",\"task_id\":\"t1\"}\n\n",
+                "data: {\"event\":\"error\",\"task_id\":\"t1\",\"code\":\"provider_quota_exceeded\","
+                        + "\"message\":\"额度不足\"}\n\n"));
+        
+        DifyApiException e = assertThrows(DifyApiException.class,
+                () -> client.run(workflow("wf", "workflow"), Map.of(), null).block(TIMEOUT));
+        
+        assertEquals("provider_quota_exceeded", e.getCode());
+        assertTrue(e.getMessage().contains("额度不足"), e.getMessage());
+    }
+    
+    @Test
+    void unsuccessfulWorkflowFinishedFailsTheRun() {
+        DifyApiClient client = client(sliced(64,
+                "data: {\"event\":\"text_chunk\",\"task_id\":\"t1\",\"data\":{\"text\":\"部分\"}}\n\n",
+                "data: {\"event\":\"workflow_finished\",\"task_id\":\"t1\","
+                        + "\"data\":{\"status\":\"failed\",\"error\":\"节点执行失败\"}}\n\n"));
+        
+        DifyApiException e = assertThrows(DifyApiException.class,
+                () -> client.run(workflow("wf", "workflow"), Map.of(), null).block(TIMEOUT));
+        
+        assertEquals("failed", e.getCode());
+        assertTrue(e.getMessage().contains("节点执行失败"), e.getMessage());
+    }
+    
+    @Test
+    void errorStatusCarriesDifyErrorCode() {
+        server = HttpServer.create()
+                .port(0)
+                .route(routes -> routes.post("/v1/workflows/run", (request, response) -> response
+                        .status(HttpResponseStatus.BAD_REQUEST)
+                        .sendString(Mono.just("{\"code\":\"invalid_param\",\"message\":\"缺少参数\"}"))))
+                .bindNow();
+        
+        DifyApiException e = assertThrows(DifyApiException.class,
+                () -> client().run(workflow("wf", "workflow"), Map.of(), null).block(TIMEOUT));
+        
+        assertEquals("invalid_param", e.getCode());
+    }
+    
+    @Test
+    void cancellationStopsTheRemoteRun() throws Exception {
+        CompletableFuture<String> firstChunk = new CompletableFuture<>();
+        server = HttpServer.create()
+                .port(0)
+                .route(routes -> routes
+                        .post("/v1/workflows/run", (request, response) -> response
+                                .header(HttpHeaders.CONTENT_TYPE, "text/event-stream")
+                                .sendString(Flux.just(
+                                                "data: {\"event\":\"workflow_started\",\"task_id\":\"t3\"}\n\n",
+                                                "data: {\"event\":\"text_chunk\",\"task_id\":\"t3\",\"data\":{\"text\":\"a\"}}\n\n")
+                                        .concatWith(Flux.never())))
+                        .post("/v1/workflows/tasks/{taskId}/stop", (request, response) -> request.receive()
+                                .aggregate()
+                                .asString()
+                                .doOnNext(body -> stopped.complete(request.param("taskId") + " " + body))
+                                .then(response.sendString(Mono.just("{\"result\":\"success\"}")).then())))
+                .bindNow();
+        
+        Disposable run = client().run(workflow("wf", "workflow"), Map.of(), firstChunk::complete).subscribe();
+        // 收到task_id和第一个片段后，调用方在工作流结束前取消
+        assertEquals("a", firstChunk.get(TIMEOUT.toSeconds(), TimeUnit.SECONDS));
+        run.dispose();
+        
+        assertEquals("t3 {\"user\":\"mcp\"}", stopped.get(TIMEOUT.toSeconds(), TimeUnit.SECONDS));
+    }
+    
+    /**
+     * 启动模拟的Dify服务，两个运行接口都返回给定的SSE响应
+     */
+    private DifyApiClient client(Flux<byte[]> sse) {
+        server = HttpServer.create()
+                .port(0)
+                .route(routes -> routes
+                        .post("/v1/chat-messages", (request, response) -> record(request.receive().aggregate().asString(),
+                                request.requestHeaders().get(HttpHeaders.AUTHORIZATION))
+                                .then(response.header(HttpHeaders.CONTENT_TYPE, "text/event-stream")
+                                        .sendByteArray(sse).then()))
+                        .post("/v1/workflows/run", (request, response) -> record(request.receive().aggregate().asString(),
+                                request.requestHeaders().get(HttpHeaders.AUTHORIZATION))
+                                .then(response.header(HttpHeaders.CONTENT_TYPE, "text/event-stream")
+                                        .sendByteArray(sse).then())))
+                .bindNow();
+        return client();
+    }
+    
+    private DifyApiClient client() {
+        MockEnvironment environment = new MockEnvironment().withProperty("dify.remote.api-keys.chat-app", "chat-key");
+        return new DifyApiClient(WebClient.builder(), objectMapper, environment, "http://localhost:" + server.port(),
+                "default-key", Set.of("*"), "mcp");
+    }
+    
+    private Mono<Void> record(Mono<String> body, String authorization) {
+        return body.doOnNext(json -> {
+            try {
+                requestBodies.add(objectMapper.readTree(json));
+                authorizations.add(authorization);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }).then();
+    }
+    
+    /**
+     * 把响应按固定字节数切分，每段单独发送，行尾和多字节字符都会落在段的边界上
+     */
+    private static Flux<byte[]> sliced(int size, String... events) {
+        byte[] bytes = String.join("", events).getBytes(StandardCharsets.UTF_8);
+        return Flux.range(0, (bytes.length + size - 1) / size)
+                .map(i -> Arrays.copyOfRange(bytes, i * size, Math.min(bytes.length, i * size + size)))
+                .delayElements(Duration.ofMillis(1));
+    }
+    
+    private static CompiledWorkflow workflow(String workflowId, String mode) {
+        String yaml = """
+                app:
+                  mode: %s
+                  name: %s
+                workflow:
+                  graph:
+                    nodes:
+                    - id: start
+                      data:
+                        type: start
+                    edges: []
+                """.formatted(mode, workflowId);
+        return CompiledWorkflow.compile(workflowId, new Yaml().loadAs(yaml, DifyWorkflow.class));
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.springaidifymcpserver.service.remote;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * SSE字节流在任意位置被切分为多个缓冲区时的增量解析
+ */
+class SseEventParserTest {
+
+    private final SseEventParser parser = new SseEventParser();
+    
+    @Test
+    void crlfSplitAcrossBuffers() {
+        List<String> events = feed("data: a\r", "\n\r", "\ndata: b\r\n", "\r\n");
+        
+        assertEquals(List.of("a", "b"), events);
+    }
+    
+    @Test
+    void multibyteUtf8SplitAcrossBuffers() {
+        byte[] bytes = "data: 你好，世界\n\n".getBytes(StandardCharsets.UTF_8);
+        
+        // 逐字节输入，每个中文字符的3个字节都落在不同的缓冲区
+        List<String> events = new ArrayList<>();
+        for (byte b : bytes) {
+            events.addAll(parser.feed(DefaultDataBufferFactory.sharedInstance.wrap(new byte[] {b})));
+        }
+        events.addAll(parser.finish());
+        
+        assertEquals(List.of("你好，世界"), events);
+    }
+    
+    @Test
+    void multiLineDataIsJoinedWithLineFeeds() {
+        List<String> events = feed("data: {\"a\":\ndata:1}\n\ndata: x\n", "data:  y\n\n");
+        
+        assertEquals(List.of("{\"a\":\n1}", "x\n y"), events);
+    }
+    
+    @Test
+    void ignoresCommentsAndOtherFields() {
+        List<String> events = feed(": ping\nevent: message\nid: 1\nretry: 1000\n\n", "event: ping\ndata: d\n\n");
+        
+        assertEquals(List.of("d"), events);
+    }
+    
+    @Test
+    void finishDispatchesUnterminatedEvent() {
+        List<String> events = feed("data: a\n\ndata: b");
+        
+        assertEquals(List.of("a", "b"), events);
+    }
+    
+    private List<String> feed(String... buffers) {
+        List<String> events = new ArrayList<>();
+        Arrays.stream(buffers)
+                .map(buffer -> DefaultDataBufferFactory.sharedInstance.wrap(buffer.getBytes(StandardCharsets.UTF_8)))
+                .forEach(buffer -> events.addAll(parser.feed(buffer)));
+        events.addAll(parser.finish());
+        return events;
+    }
+}